@@ -0,0 +1,23 @@
+package org.capeph.config;
+
+public class BooleanValue extends PathParameter{
+    private boolean value;
+
+    public BooleanValue(String path) {
+        super(path);
+        Loader.setupParameter(this);
+    }
+
+    @Override
+    void setValue(Object value) {
+        this.value = switch (value) {
+            case Boolean boolObj -> boolObj;
+            case String strObj -> Boolean.parseBoolean(strObj);
+            default -> throw new IllegalArgumentException(getPath() + " is not a boolean in file config");
+        };
+    }
+
+    public boolean get() {
+        return value;
+    }
+}
@@ -6,5 +6,54 @@ public class Config {
     public static IntValue maxPoolSize = new IntValue("reactor.pool.max");
     public static StringValue lookupUrl = new StringValue("reactor.lookup.url");
     public static StringValue lookupPath = new StringValue("reactor.lookup.path");
+    public static StringValue dispatcherProducers = new StringValue("reactor.dispatcher.producers");
+    public static IntValue dispatcherBatch = new IntValue("reactor.dispatcher.batch");
+    public static StringValue backpressurePolicy = new StringValue("reactor.dispatcher.backpressure.policy");
+    public static IntValue backpressureTimeout = new IntValue("reactor.dispatcher.backpressure.timeout");
+    public static IntValue backpressureSpill = new IntValue("reactor.dispatcher.backpressure.spill");
+    public static StringValue handoffMode = new StringValue("reactor.dispatcher.handoff.mode");
+    public static IntValue handoffSize = new IntValue("reactor.dispatcher.handoff.size");
+    public static IntValue dispatcherPartitions = new IntValue("reactor.dispatcher.partitions");
+    public static IntValue timerResolution = new IntValue("reactor.timer.resolution");
+    public static IntValue timerTicks = new IntValue("reactor.timer.ticks");
+    public static IntValue timerQueue = new IntValue("reactor.timer.queue");
+    public static IntValue timerCapacity = new IntValue("reactor.timer.capacity");
+    public static IntValue termLength = new IntValue("reactor.publication.term-length");
+    public static BooleanValue ipc = new BooleanValue("reactor.publication.ipc");
+    public static BooleanValue localDelivery = new BooleanValue("reactor.publication.local");
+    public static StringValue lanes = new StringValue("reactor.lanes");
+    public static IntValue sendTimeout = new IntValue("reactor.send.timeout");
+    public static IntValue sendQueue = new IntValue("reactor.send.queue");
+    public static IntValue pendingRequests = new IntValue("reactor.request.pending");
+    public static StringValue driverDir = new StringValue("reactor.driver.dir");
+    public static StringValue driverThreading = new StringValue("reactor.driver.threading");
+    public static IntValue driverTermLength = new IntValue("reactor.driver.term-length");
+    public static IntValue driverMtu = new IntValue("reactor.driver.mtu");
+    public static IntValue driverSendBuffer = new IntValue("reactor.driver.socket.send-buffer");
+    public static IntValue driverReceiveBuffer = new IntValue("reactor.driver.socket.receive-buffer");
+    public static StringValue driverConductorIdleStrategy = new StringValue("reactor.driver.idle.conductor");
+    public static StringValue driverSenderIdleStrategy = new StringValue("reactor.driver.idle.sender");
+    public static StringValue driverReceiverIdleStrategy = new StringValue("reactor.driver.idle.receiver");
+    public static StringValue driverSharedIdleStrategy = new StringValue("reactor.driver.idle.shared");
+    public static BooleanValue archiveEnabled = new BooleanValue("reactor.archive.enabled");
+    public static BooleanValue archiveEmbedded = new BooleanValue("reactor.archive.embedded");
+    public static StringValue archiveDir = new StringValue("reactor.archive.dir");
+    public static StringValue archiveThreading = new StringValue("reactor.archive.threading");
+    public static IntValue archiveSync = new IntValue("reactor.archive.sync");
+    public static StringValue archiveControlChannel = new StringValue("reactor.archive.control.channel");
+    public static IntValue archiveControlStream = new IntValue("reactor.archive.control.stream");
+    public static IntValue archiveStreamBase = new IntValue("reactor.archive.stream-base");
+    public static IntValue archiveCheckpoint = new IntValue("reactor.archive.checkpoint");
+    public static StringValue threadPrefix = new StringValue("reactor.agent.prefix");
+    public static BooleanValue compositeAgent = new BooleanValue("reactor.agent.composite");
+    public static IntValue receiveCpu = new IntValue("reactor.agent.receive.cpu");
+    public static IntValue receiveFragments = new IntValue("reactor.agent.receive.fragments");
+    public static BooleanValue receiveAdaptive = new BooleanValue("reactor.agent.receive.adaptive");
+    public static StringValue dispatcherCpus = new StringValue("reactor.agent.dispatcher.cpus");
+    public static StringValue receiveIdleStrategy = new StringValue("reactor.idle.receive");
+    public static StringValue dispatcherIdleStrategy = new StringValue("reactor.idle.dispatcher");
+    public static StringValue senderIdleStrategy = new StringValue("reactor.idle.sender");
+    public static StringValue backpressureIdleStrategy = new StringValue("reactor.idle.backpressure");
+    public static StringValue poolIdleStrategy = new StringValue("reactor.idle.pool");
 
 }
@@ -2,6 +2,7 @@ plugins {
     java
     id("org.springframework.boot") version "3.2.5"
     id("io.spring.dependency-management") version "1.1.4"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "org.capeph"
@@ -24,12 +25,20 @@ dependencies {
     implementation("org.apache.logging.log4j:log4j-api:2.23.1")
     implementation("org.apache.logging.log4j:log4j-core:2.23.1")
     implementation("io.aeron:aeron-all:1.44.1")
+    testImplementation(project(":processor"))
+    testAnnotationProcessor(project(":processor"))
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.mockito:mockito-core:5.12.0")
 }
 
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+}
+
 tasks.test {
     useJUnitPlatform()
     jvmArgs("--add-opens=java.base/sun.nio.ch=ALL-UNNAMED")
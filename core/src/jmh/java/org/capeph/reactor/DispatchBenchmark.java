@@ -0,0 +1,182 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.collections.Object2ObjectHashMap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares the old hash map based handler lookup with the dispatch table, and typed dispatch through
+ * one handler class with typed dispatch through several, where the call to the handlers is megamorphic.
+ * Run with: gradle :core:jmh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    public static class MsgA implements ReusableMessage { public long value; public void clear() {} }
+    public static class MsgB implements ReusableMessage { public long value; public void clear() {} }
+    public static class MsgC implements ReusableMessage { public long value; public void clear() {} }
+    public static class MsgD implements ReusableMessage { public long value; public void clear() {} }
+
+    /**
+     * written like the generated dispatch classes, one class for each handler
+     */
+    private abstract static class Handler implements TypedDispatch {
+        private static final Class<? extends ReusableMessage>[] TYPES = types();
+        final Blackhole blackhole;
+
+        Handler(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends ReusableMessage>[] types() {
+            return new Class[] {MsgA.class, MsgB.class, MsgC.class, MsgD.class};
+        }
+
+        @Override
+        public Class<? extends ReusableMessage>[] messageTypes() {
+            return TYPES;
+        }
+    }
+
+    private static final class HandlerA extends Handler {
+        HandlerA(Blackhole blackhole) { super(blackhole); }
+        @Override
+        public void dispatch(int typeIndex, ReusableMessage message) {
+            switch (typeIndex) {
+                case 0 -> blackhole.consume(((MsgA) message).value);
+                case 1 -> blackhole.consume(((MsgB) message).value);
+                case 2 -> blackhole.consume(((MsgC) message).value);
+                default -> blackhole.consume(((MsgD) message).value);
+            }
+        }
+    }
+
+    private static final class HandlerB extends Handler {
+        HandlerB(Blackhole blackhole) { super(blackhole); }
+        @Override
+        public void dispatch(int typeIndex, ReusableMessage message) {
+            switch (typeIndex) {
+                case 0 -> blackhole.consume(((MsgA) message).value + 1);
+                case 1 -> blackhole.consume(((MsgB) message).value + 1);
+                case 2 -> blackhole.consume(((MsgC) message).value + 1);
+                default -> blackhole.consume(((MsgD) message).value + 1);
+            }
+        }
+    }
+
+    private static final class HandlerC extends Handler {
+        HandlerC(Blackhole blackhole) { super(blackhole); }
+        @Override
+        public void dispatch(int typeIndex, ReusableMessage message) {
+            switch (typeIndex) {
+                case 0 -> blackhole.consume(((MsgA) message).value + 2);
+                case 1 -> blackhole.consume(((MsgB) message).value + 2);
+                case 2 -> blackhole.consume(((MsgC) message).value + 2);
+                default -> blackhole.consume(((MsgD) message).value + 2);
+            }
+        }
+    }
+
+    private static final class HandlerD extends Handler {
+        HandlerD(Blackhole blackhole) { super(blackhole); }
+        @Override
+        public void dispatch(int typeIndex, ReusableMessage message) {
+            switch (typeIndex) {
+                case 0 -> blackhole.consume(((MsgA) message).value + 3);
+                case 1 -> blackhole.consume(((MsgB) message).value + 3);
+                case 2 -> blackhole.consume(((MsgC) message).value + 3);
+                default -> blackhole.consume(((MsgD) message).value + 3);
+            }
+        }
+    }
+
+    private static final int MESSAGES = 1024;
+
+    private final Map<Class<? extends ReusableMessage>, List<Consumer<ReusableMessage>>> hashReactions = new Object2ObjectHashMap<>();
+    private final DispatchTable tableReactions = new DispatchTable();
+    private final DispatchTable oneTypedHandler = new DispatchTable();
+    private final DispatchTable severalTypedHandlers = new DispatchTable();
+    private final ReusableMessage[] messages = new ReusableMessage[MESSAGES];
+    private Blackhole blackhole;
+    private int next = 0;
+
+    private void register(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> consumer) {
+        hashReactions.computeIfAbsent(messageClass, r -> new ArrayList<>()).add(consumer);
+        tableReactions.register(messageClass, consumer);
+    }
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        List<Class<? extends ReusableMessage>> classes = List.of(MsgA.class, MsgB.class, MsgC.class, MsgD.class);
+        for (Class<? extends ReusableMessage> clazz : classes) {
+            register(clazz, m -> this.blackhole.consume(m));
+            register(clazz, m -> this.blackhole.consume(m.hashCode()));
+        }
+        for (int i = 0; i < 4; i++) {   // as many handlers as below, all of one class
+            oneTypedHandler.register(new HandlerA(blackhole), false);
+        }
+        severalTypedHandlers.register(new HandlerA(blackhole), false);
+        severalTypedHandlers.register(new HandlerB(blackhole), false);
+        severalTypedHandlers.register(new HandlerC(blackhole), false);
+        severalTypedHandlers.register(new HandlerD(blackhole), false);
+        for (int i = 0; i < MESSAGES; i++) {
+            messages[i] = switch (i % classes.size()) {
+                case 0 -> new MsgA();
+                case 1 -> new MsgB();
+                case 2 -> new MsgC();
+                default -> new MsgD();
+            };
+        }
+    }
+
+    private ReusableMessage nextMessage() {
+        return messages[next++ & (MESSAGES - 1)];
+    }
+
+    @Benchmark
+    public void hashMapDispatch() {
+        ReusableMessage message = nextMessage();
+        List<Consumer<ReusableMessage>> consumers = hashReactions.get(message.getClass());
+        consumers.forEach(consumer -> consumer.accept(message));
+    }
+
+    @Benchmark
+    public void tableDispatch() {
+        ReusableMessage message = nextMessage();
+        Consumer<ReusableMessage>[] consumers = tableReactions.handlersFor(message.getClass());
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].accept(message);
+        }
+    }
+
+    private static void typedDispatch(DispatchTable table, ReusableMessage message) {
+        DispatchTable.Slot slot = table.slotFor(message.getClass());
+        TypedDispatch[] typed = slot.typed;
+        for (int i = 0; i < typed.length; i++) {
+            typed[i].dispatch(slot.typeIndex[i], message);
+        }
+    }
+
+    @Benchmark
+    public void typedDispatchOneHandlerClass() {
+        typedDispatch(oneTypedHandler, nextMessage());
+    }
+
+    @Benchmark
+    public void typedDispatchSeveralHandlerClasses() {
+        typedDispatch(severalTypedHandlers, nextMessage());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.concurrent.AgentRunner;
+
+/**
+ * Name of the thread an agent runs on and the cpu it is pinned to.
+ */
+public final class AgentPlacement {
+
+    public static final int ANY_CPU = -1;
+
+    private final String threadName;
+    private final int cpu;
+
+    public AgentPlacement(String threadName, int cpu) {
+        this.threadName = threadName;
+        this.cpu = cpu;
+    }
+
+    public static AgentPlacement unpinned(String threadName) {
+        return new AgentPlacement(threadName, ANY_CPU);
+    }
+
+    /**
+     * @param cpus comma separated list of cpus, may be empty
+     * @param index position in the list
+     * @return the cpu at the position, or ANY_CPU if the list is too short
+     */
+    public static int cpuAt(String cpus, int index) {
+        if (cpus == null || cpus.isBlank()) {
+            return ANY_CPU;
+        }
+        String[] entries = cpus.split(",");
+        return index < entries.length ? Integer.parseInt(entries[index].trim()) : ANY_CPU;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public int getCpu() {
+        return cpu;
+    }
+
+    /**
+     * run the agent on a new thread with this name, pinned to the cpu if one is set
+     * @param runner the agent runner to start
+     * @return the started thread
+     */
+    public Thread start(AgentRunner runner) {
+        Thread thread = new Thread(() -> {
+            if (cpu != ANY_CPU) {
+                ThreadAffinity.pinCurrentThread(cpu);
+            }
+            runner.run();
+        }, threadName);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return threadName + (cpu == ANY_CPU ? "" : "@cpu" + cpu);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Aeron;
+import io.aeron.archive.Archive;
+import io.aeron.archive.ArchiveThreadingMode;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.archive.client.RecordingSignalConsumer;
+import org.capeph.config.Config;
+
+import java.io.File;
+
+/**
+ * Settings of the Aeron Archive that records the inbound streams of reactors, read from the
+ * archive section of the config. An embedded archive is launched once per process, on the same
+ * media driver as the reactors.
+ */
+final class ArchiveProfile {
+
+    private static final String IPC_CHANNEL = "aeron:ipc";
+
+    private static Archive archive;   // the embedded archive of this process
+
+    private ArchiveProfile() {
+    }
+
+    /**
+     * @return the directory the archive keeps the recordings and the replay positions in
+     */
+    static String directory() {
+        String dir = Config.archiveDir.get();
+        return dir == null || dir.isBlank() ? new File(System.getProperty("java.io.tmpdir"), "reactor-archive").getPath()
+                                            : dir.trim();
+    }
+
+    /**
+     * launch the embedded archive, unless it is already running or an external archive is configured
+     */
+    static synchronized void launch() {
+        if (archive == null && Config.archiveEmbedded.get()) {
+            archive = Archive.launch(context());
+        }
+    }
+
+    /**
+     * @return context for launching an embedded archive, controlled over the local control channel only
+     */
+    static Archive.Context context() {
+        Archive.Context context = new Archive.Context()
+                .aeronDirectoryName(DriverProfile.directory())
+                .archiveDir(new File(directory()))
+                .controlChannelEnabled(false)
+                .localControlChannel(Config.archiveControlChannel.get())
+                .localControlStreamId(Config.archiveControlStream.get())
+                .replicationChannel("aeron:udp?endpoint=localhost:0")
+                .archiveClientContext(new AeronArchive.Context().controlResponseChannel("aeron:udp?endpoint=localhost:0"))
+                .recordingEventsEnabled(false)
+                .fileSyncLevel(Config.archiveSync.get());
+        String threading = Config.archiveThreading.get();
+        if (threading != null && !threading.isBlank()) {
+            context.threadingMode(ArchiveThreadingMode.valueOf(threading.trim().toUpperCase()));
+        }
+        return context;
+    }
+
+    /**
+     * @param aeron client of the reactor, kept open when the archive client is closed
+     * @param responseStream stream for the responses of the archive, unique for each client of the driver
+     * @param signals gets the recording signals of the recordings started by the client
+     * @return a connected archive client
+     */
+    static AeronArchive connect(Aeron aeron, int responseStream, RecordingSignalConsumer signals) {
+        launch();
+        AeronArchive.Context context = new AeronArchive.Context()
+                .aeron(aeron)
+                .ownsAeronClient(false)
+                .controlRequestChannel(Config.archiveControlChannel.get())
+                .controlRequestStreamId(Config.archiveControlStream.get())
+                .controlResponseChannel(IPC_CHANNEL)
+                .controlResponseStreamId(responseStream);
+        if (signals != null) {
+            context.recordingSignalConsumer(signals);
+        }
+        return AeronArchive.connect(context);
+    }
+}
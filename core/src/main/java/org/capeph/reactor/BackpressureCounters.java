@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often the back pressure policy of a dispatcher has kicked in
+ */
+public class BackpressureCounters {
+
+    final AtomicLong timedOut = new AtomicLong();
+    final AtomicLong droppedNewest = new AtomicLong();
+    final AtomicLong droppedOldest = new AtomicLong();
+    final AtomicLong spilled = new AtomicLong();
+
+    /**
+     * @return messages dropped since the ring buffer stayed full longer than the block timeout
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return incoming messages dropped, including messages that did not fit in the overflow buffer
+     */
+    public long getDroppedNewest() {
+        return droppedNewest.get();
+    }
+
+    /**
+     * @return queued messages dropped to make room for new ones
+     */
+    public long getDroppedOldest() {
+        return droppedOldest.get();
+    }
+
+    /**
+     * @return messages put in the overflow buffer
+     */
+    public long getSpilled() {
+        return spilled.get();
+    }
+
+    /**
+     * @param counters counters to add up
+     * @return new counters holding the sum
+     */
+    public static BackpressureCounters sum(BackpressureCounters... counters) {
+        BackpressureCounters result = new BackpressureCounters();
+        for (BackpressureCounters c : counters) {
+            result.timedOut.addAndGet(c.getTimedOut());
+            result.droppedNewest.addAndGet(c.getDroppedNewest());
+            result.droppedOldest.addAndGet(c.getDroppedOldest());
+            result.spilled.addAndGet(c.getSpilled());
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "BackpressureCounters[timedOut=" + getTimedOut() +
+                ", droppedNewest=" + getDroppedNewest() +
+                ", droppedOldest=" + getDroppedOldest() +
+                ", spilled=" + getSpilled() + ']';
+    }
+}
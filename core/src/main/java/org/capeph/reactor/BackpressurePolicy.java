@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.capeph.config.Config;
+
+/**
+ * What the dispatcher does with a message when its ring buffer is full
+ */
+public enum BackpressurePolicy {
+    /**
+     * wait for room in the ring buffer, the message is dropped if the timeout expires
+     */
+    BLOCK,
+    /**
+     * drop the incoming message
+     */
+    DROP_NEWEST,
+    /**
+     * keep the incoming message and drop the oldest queued message
+     */
+    DROP_OLDEST,
+    /**
+     * put the message in an overflow buffer that is handled after the ring buffer
+     */
+    SPILL;
+
+    /**
+     * @return the policy set in the config, BLOCK if none is set
+     */
+    static BackpressurePolicy configured() {
+        String configured = Config.backpressurePolicy.get();
+        return configured == null || configured.isBlank() ? BLOCK
+                : valueOf(configured.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Flat handler table used by the dispatcher.
+ * Every message class gets a dense id the first time it is seen, and the pre-flattened handlers of
+ * a class are kept in an array indexed by the id, so dispatch is an array load with no scan, no
+ * iterator and no lambda. The ids are shared by all tables, so the array of a table is as long as the
+ * highest id it has handlers for.
+ * Registration replaces the whole table, so it can be done while messages are being dispatched.
+ */
+final class DispatchTable {
+
+    /**
+     * handlers for one message class. If the class has blocking handlers they are run
+     * by a serial executor on a virtual thread, otherwise the executor is null.
+     * Generated typed handlers are kept apart from the consumers, together with the
+     * index of the message class in each of them.
+     */
+    static final class Slot {
+        private static final TypedDispatch[] NO_TYPED = new TypedDispatch[0];
+
+        final Consumer<ReusableMessage>[] handlers;
+        final TypedDispatch[] typed;
+        final int[] typeIndex;
+        final ExecutorService executor;
+
+        private Slot(Consumer<ReusableMessage>[] handlers, TypedDispatch[] typed, int[] typeIndex,
+                     ExecutorService executor) {
+            this.handlers = handlers;
+            this.typed = typed;
+            this.typeIndex = typeIndex;
+            this.executor = executor;
+        }
+
+        private static Slot empty() {
+            return new Slot(asArray(), NO_TYPED, new int[0], null);
+        }
+
+        private Slot with(Consumer<ReusableMessage> consumer) {
+            Consumer<ReusableMessage>[] extended = Arrays.copyOf(handlers, handlers.length + 1);
+            extended[handlers.length] = consumer;
+            return new Slot(extended, typed, typeIndex, executor);
+        }
+
+        private Slot with(TypedDispatch dispatch, int index) {
+            TypedDispatch[] extended = Arrays.copyOf(typed, typed.length + 1);
+            extended[typed.length] = dispatch;
+            int[] indexes = Arrays.copyOf(typeIndex, typeIndex.length + 1);
+            indexes[typeIndex.length] = index;
+            return new Slot(handlers, extended, indexes, executor);
+        }
+
+        private Slot blocking(Class<?> messageClass) {
+            return executor != null ? this : new Slot(handlers, typed, typeIndex, serialExecutor(messageClass));
+        }
+    }
+
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final ClassValue<Integer> ids = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return nextId.getAndIncrement();
+        }
+    };
+
+    private volatile Slot[] slots = new Slot[0];   // by class id, null for classes without handlers
+
+    /**
+     * add a handler for a message class
+     * @param messageClass type of message
+     * @param messageConsumer handler for the message type
+     */
+    void register(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer) {
+        register(messageClass, messageConsumer, false);
+    }
+
+    /**
+     * add a handler for a message class
+     * @param messageClass type of message
+     * @param messageConsumer handler for the message type
+     * @param blocking if true all handlers for the class are run on a virtual thread
+     */
+    synchronized void register(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                               boolean blocking) {
+        update(messageClass, existing -> blocking ? existing.with(messageConsumer).blocking(messageClass)
+                                                         : existing.with(messageConsumer));
+    }
+
+    /**
+     * add a generated typed handler for all the message classes it handles
+     * @param dispatch the generated dispatch of a handler object
+     * @param blocking if true all handlers for the classes are run on a virtual thread
+     */
+    synchronized void register(TypedDispatch dispatch, boolean blocking) {
+        Class<? extends ReusableMessage>[] types = dispatch.messageTypes();
+        for (int i = 0; i < types.length; i++) {
+            Class<? extends ReusableMessage> messageClass = types[i];
+            int index = i;
+            update(messageClass, existing -> blocking ? existing.with(dispatch, index).blocking(messageClass)
+                                                      : existing.with(dispatch, index));
+        }
+    }
+
+    private void update(Class<? extends ReusableMessage> messageClass, UnaryOperator<Slot> change) {
+        int id = ids.get(messageClass);
+        Slot[] current = slots;
+        Slot[] updated = Arrays.copyOf(current, Math.max(current.length, id + 1));
+        updated[id] = change.apply(updated[id] == null ? Slot.empty() : updated[id]);
+        slots = updated;
+    }
+
+    private static ExecutorService serialExecutor(Class<?> messageClass) {
+        // a single worker keeps the messages of the type in order
+        return Executors.newSingleThreadExecutor(Thread.ofVirtual().name("handler-" + messageClass.getSimpleName()).factory());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<ReusableMessage>[] asArray() {
+        return new Consumer[0];
+    }
+
+    /**
+     * @param messageClass type of message
+     * @return the handlers registered for the class, or null if there are none
+     */
+    Slot slotFor(Class<?> messageClass) {
+        int id = ids.get(messageClass);
+        Slot[] current = slots;
+        return id < current.length ? current[id] : null;
+    }
+
+    /**
+     * @param messageClass type of message
+     * @return the handlers registered for the class, in registration order, or null if there are none
+     */
+    Consumer<ReusableMessage>[] handlersFor(Class<?> messageClass) {
+        Slot slot = slotFor(messageClass);
+        return slot == null ? null : slot.handlers;
+    }
+
+    /**
+     * stop the executors of blocking handlers, messages already queued are still handled
+     */
+    synchronized void close() {
+        for (Slot slot : slots) {
+            if (slot != null && slot.executor != null) {
+                slot.executor.shutdown();
+            }
+        }
+    }
+}
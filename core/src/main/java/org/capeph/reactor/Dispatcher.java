@@ -1,36 +1,81 @@
 package org.capeph.reactor;
 
-import org.agrona.collections.Object2ObjectHashMap;
 import org.agrona.concurrent.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.capeph.config.Config;
 import org.capeph.pool.MessagePool;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 
-public class Dispatcher implements Consumer<ReusableMessage>, Agent {
+public class Dispatcher implements MessageDispatcher, Agent {
+
+    /**
+     * queued behind the messages accepted before it, runs its action instead of being handled
+     */
+    private record Fence(Runnable action) implements ReusableMessage {
+        @Override
+        public void clear() {
+        }
+    }
 
     private final Logger log = LogManager.getLogger(Dispatcher.class);
     private final MessagePool pool;
     private final boolean inProcess;
-    private final IdleStrategy waitStrategy;
-    private StaticRingBuffer<ReusableMessage> ringBuffer;
-    private final Map<Class<? extends ReusableMessage>, List<Consumer<ReusableMessage>>> reactions = new Object2ObjectHashMap<>();
+    private final ThreadLocal<IdleStrategy> waitStrategies;   // several producers can wait at once
+    private final PaddedRingBuffer<ReusableMessage> ringBuffer;
+    private final Consumer<ReusableMessage> processor = this::process;
+    private final int batchLimit;
+    private final DispatchTable reactions = new DispatchTable();
+    private final MessageTimers timers;
+    private volatile PendingReplies replies;   // null until the dispatcher is used for requests
+    private final String roleName;
+    private final BackpressureCounters counters = new BackpressureCounters();
+    private final AtomicLong pendingEvictions = new AtomicLong();   // oldest messages to drop, DROP_OLDEST only
+    private BackpressurePolicy policy;
+    private long blockTimeoutNs;
+    private PaddedRingBuffer<ReusableMessage> overflow;   // only used by SPILL and DROP_OLDEST
     private AgentRunner runner;
 
     public Dispatcher(IdleStrategy idleStrategy, MessagePool pool, boolean inProcess) {
+        this(idleStrategy, pool, inProcess, ProducerMode.configured());
+    }
+
+    /**
+     * @param idleStrategy idle strategy for the dispatcher agent
+     * @param pool pool that handled messages are returned to
+     * @param inProcess if true messages are processed on the calling thread
+     * @param producers whether one or several threads will call accept
+     */
+    public Dispatcher(IdleStrategy idleStrategy, MessagePool pool, boolean inProcess, ProducerMode producers) {
+        this(idleStrategy, pool, inProcess, producers, AgentPlacement.unpinned("dispatcher"));
+    }
+
+    /**
+     * @param idleStrategy idle strategy for the dispatcher agent
+     * @param pool pool that handled messages are returned to
+     * @param inProcess if true messages are processed on the calling thread
+     * @param producers whether one or several threads will call accept
+     * @param placement thread for the dispatcher agent, or null if the caller runs the agent itself
+     */
+    public Dispatcher(IdleStrategy idleStrategy, MessagePool pool, boolean inProcess, ProducerMode producers,
+                      AgentPlacement placement) {
         this.pool = pool;
-        ringBuffer = new StaticRingBuffer<>(Config.maxPoolSize.get()); // max needed buffer size
+        this.timers = new MessageTimers(processor, this::processRetained, pool::reuseMessage);
+        this.roleName = placement == null ? "dispatcher" : placement.getThreadName();
+        // max needed buffer size, messages handled on the calling thread are never queued
+        ringBuffer = inProcess ? null : PaddedRingBuffer.create(producers, Config.maxPoolSize.get());
+        batchLimit = Math.max(1, Config.dispatcherBatch.get());
         this.inProcess = inProcess;
-        this.waitStrategy = new BackoffIdleStrategy();  // waiting for the buffer to be available
-        if (!inProcess) {
+        this.waitStrategies = ThreadLocal.withInitial(IdleStrategies.factory(Config.backpressureIdleStrategy));  // waiting for the buffer to be available
+        setBackpressurePolicy(BackpressurePolicy.configured());
+        if (!inProcess && placement != null) {
             runner = new AgentRunner(idleStrategy, this::errorHandler, null, this);
-            AgentRunner.startOnThread(runner);
+            placement.start(runner);
         }
     }
 
@@ -39,15 +84,50 @@ public class Dispatcher implements Consumer<ReusableMessage>, Agent {
     }
 
 
+    @Override
+    public  void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                                   HandlerExecution execution) {
+        reactions.register(messageClass, messageConsumer, execution == HandlerExecution.VIRTUAL_THREAD);
+    }
+
+    @Override
+    public void addTypedHandler(TypedDispatch dispatch, HandlerExecution execution) {
+        reactions.register(dispatch, execution == HandlerExecution.VIRTUAL_THREAD);
+    }
+
     /**
-     * register a message handler for a message type
-     * @param messageClass - type of message
-     * @param messageConsumer - handler for the message type
+     * select what to do with messages when the ring buffer is full.
+     * Must be called before any messages are accepted.
+     * @param policy the back pressure policy
      */
+    public void setBackpressurePolicy(BackpressurePolicy policy) {
+        this.policy = policy;
+        this.blockTimeoutNs = TimeUnit.MILLISECONDS.toNanos(Config.backpressureTimeout.get());
+        if (!inProcess && (policy == BackpressurePolicy.SPILL || policy == BackpressurePolicy.DROP_OLDEST)) {
+            overflow = PaddedRingBuffer.create(ProducerMode.MULTI, Math.max(1, Config.backpressureSpill.get()));
+        } else {
+            overflow = null;
+        }
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return policy;
+    }
 
-    public  void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer) {
-        List<Consumer<ReusableMessage>> consumers = reactions.computeIfAbsent(messageClass, r -> new ArrayList<>());
-        consumers.add(messageConsumer);
+    @Override
+    public BackpressureCounters counters() {
+        return counters;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        if (inProcess) {
+            return Integer.MAX_VALUE;
+        }
+        if (overflow != null && !overflow.isEmpty()) {
+            return overflow.capacity() - overflow.size();   // new messages go after the spilled ones
+        }
+        return ringBuffer.capacity() - ringBuffer.size();
     }
 
     private long longestWait = 0;
@@ -56,41 +136,216 @@ public class Dispatcher implements Consumer<ReusableMessage>, Agent {
     public void accept(ReusableMessage message) {
         if (inProcess) {
             process(message);
+            return;
+        }
+        // once messages have spilled the new ones must follow them to keep the order
+        if (overflow != null && !overflow.isEmpty()) {
+            overflow(message);
+        }
+        else if (!ringBuffer.offer(message)) {
+            switch (policy) {
+                case BLOCK -> block(message);
+                case DROP_NEWEST -> drop(message);
+                case DROP_OLDEST, SPILL -> overflow(message);
+            }
+        }
+    }
+
+    private void block(ReusableMessage message) {
+        long deadline = System.nanoTime() + blockTimeoutNs;
+        IdleStrategy waitStrategy = waitStrategies.get();
+        waitStrategy.reset();
+        while (!ringBuffer.offer(message)) {
+            if (blockTimeoutNs > 0 && System.nanoTime() - deadline > 0) {
+                counters.timedOut.incrementAndGet();
+                pool.reuseMessage(message);
+                return;
+            }
+            waitStrategy.idle();
+        }
+    }
+
+    private void drop(ReusableMessage message) {
+        counters.droppedNewest.incrementAndGet();
+        pool.reuseMessage(message);
+    }
+
+    private void overflow(ReusableMessage message) {
+        if (!overflow.offer(message)) {
+            drop(message);
+            return;
+        }
+        if (policy == BackpressurePolicy.DROP_OLDEST) {
+            pendingEvictions.incrementAndGet();   // the dispatcher thread owns the head, so it does the dropping
+        } else {
+            counters.spilled.incrementAndGet();
         }
-        else {
-            while (!ringBuffer.offer(message)) {
-                waitStrategy.idle();
+    }
+
+    private int evictOldest() {
+        long evictions = pendingEvictions.getAndSet(0);
+        int evicted = 0;
+        while (evicted < evictions) {
+            ReusableMessage oldest = ringBuffer.poll();
+            if (oldest == null) {
+                oldest = overflow.poll();
+                if (oldest == null) {
+                    break;
+                }
+            }
+            if (!(oldest instanceof Fence)) {   // a dropped fence is never run, the next one is
+                pool.reuseMessage(oldest);
             }
+            evicted++;
         }
+        counters.droppedOldest.addAndGet(evicted);
+        return evicted;
     }
 
     public void process(ReusableMessage message) {
-        List<Consumer<ReusableMessage>> consumers = reactions.get(message.getClass());
-        if (consumers != null) {
-            consumers.forEach(consumer -> consumer.accept(message));
+        if (message instanceof Fence fence) {
+            fence.action().run();
+            return;
+        }
+        if (replies != null && message instanceof CorrelatedMessage correlated && correlated.isReply()) {
+            routeReply(correlated);
+            return;
+        }
+        DispatchTable.Slot slot = reactions.slotFor(message.getClass());
+        if (slot == null) {
             pool.reuseMessage(message);
+            throw new IllegalStateException("No handler for message of type " + message.getClass());
+        }
+        if (slot.executor != null) {
+            slot.executor.execute(() -> processBlocking(slot, message));
         } else {
+            invokeHandlers(slot, message);
             pool.reuseMessage(message);
+        }
+    }
+
+    private void routeReply(CorrelatedMessage reply) {
+        try {
+            if (!replies.complete(reply.getCorrelationId(), reply)) {
+                log.debug("No pending request for reply {}", reply.getCorrelationId());
+            }
+        } finally {
+            pool.reuseMessage(reply);
+        }
+    }
+
+    @Override
+    public void routeReplies(PendingReplies replies) {
+        this.replies = replies;
+    }
+
+    @Override
+    public boolean fence(Runnable action) {
+        if (inProcess) {
+            action.run();   // the messages before it were handled by the threads that accepted them
+            return true;
+        }
+        Fence fence = new Fence(action);
+        if (overflow != null && !overflow.isEmpty()) {
+            return overflow.offer(fence);
+        }
+        return ringBuffer.offer(fence);
+    }
+
+    /**
+     * run the handlers for a message that is used again, such as a periodic timer message
+     * @param message message to handle, it is not returned to the pool
+     */
+    void processRetained(ReusableMessage message) {
+        DispatchTable.Slot slot = reactions.slotFor(message.getClass());
+        if (slot == null) {
             throw new IllegalStateException("No handler for message of type " + message.getClass());
         }
+        if (slot.executor != null) {
+            slot.executor.execute(() -> {
+                try {
+                    invokeHandlers(slot, message);
+                } catch (Throwable th) {
+                    log.error("Blocking handler for {} failed", message.getClass(), th);
+                }
+            });
+        } else {
+            invokeHandlers(slot, message);
+        }
     }
 
+    @Override
+    public long schedule(ReusableMessage message, long delayNs, long periodNs) {
+        return timers.schedule(message, delayNs, periodNs);
+    }
+
+    @Override
+    public void cancelTimer(long timerId) {
+        timers.cancel(timerId);
+    }
+
+    /**
+     * handle the expired timers and request timeouts, called from the duty cycle of the agent running the dispatcher
+     * @return amount of work done
+     */
+    int pollTimers() {
+        int work = timers.isEmpty() ? 0 : timers.poll(System.nanoTime());
+        PendingReplies current = replies;
+        if (current != null && current.hasOutstanding()) {
+            work += current.pollTimeouts(System.nanoTime());
+        }
+        return work;
+    }
+
+    private static void invokeHandlers(DispatchTable.Slot slot, ReusableMessage message) {
+        Consumer<ReusableMessage>[] consumers = slot.handlers;
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i].accept(message);
+        }
+        TypedDispatch[] typed = slot.typed;
+        for (int i = 0; i < typed.length; i++) {   // megamorphic with three or more handler classes
+            typed[i].dispatch(slot.typeIndex[i], message);
+        }
+    }
+
+    private void processBlocking(DispatchTable.Slot slot, ReusableMessage message) {
+        try {
+            invokeHandlers(slot, message);
+        } catch (Throwable th) {
+            log.error("Blocking handler for {} failed", message.getClass(), th);
+        } finally {
+            pool.reuseMessage(message);
+        }
+    }
+
+    @Override
     public void stop() {  // TODO: rename to close
-        runner.close();
+        if (runner != null) {
+            runner.close();
+        }
+        reactions.close();
     }
 
     @Override
     public int doWork() throws Exception {
-        ReusableMessage msg = ringBuffer.poll();
-        if (msg == null) {
-            return 0;
+        int fired = pollTimers();
+        if (inProcess) {
+            return fired;
+        }
+        if (overflow == null) {
+            return fired + ringBuffer.drain(processor, batchLimit);
+        }
+        int work = fired;
+        work += policy == BackpressurePolicy.DROP_OLDEST && pendingEvictions.get() > 0 ? evictOldest() : 0;
+        int handled = ringBuffer.drain(processor, batchLimit);
+        if (handled < batchLimit && ringBuffer.isEmpty()) {   // the spilled messages are newer than the ring
+            handled += overflow.drain(processor, batchLimit - handled);
         }
-        process(msg);
-        return 1;
+        return work + handled;
     }
 
     @Override
     public String roleName() {
-        return "";
+        return roleName;
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.CommonContext;
+import io.aeron.driver.MediaDriver;
+import io.aeron.driver.ThreadingMode;
+import org.capeph.config.Config;
+import org.capeph.config.StringValue;
+
+/**
+ * Settings of the media driver a reactor launches when no driver is running, read from the
+ * driver section of the config. Empty and zero values keep the Aeron defaults.
+ */
+final class DriverProfile {
+
+    private DriverProfile() {
+    }
+
+    /**
+     * @return the directory of the media driver, used by the driver and by the Aeron client
+     */
+    static String directory() {
+        String dir = Config.driverDir.get();
+        return dir == null || dir.isBlank() ? CommonContext.getAeronDirectoryName() : dir.trim();
+    }
+
+    /**
+     * @return context for launching an embedded media driver
+     */
+    static MediaDriver.Context context() {
+        MediaDriver.Context context = new MediaDriver.Context().aeronDirectoryName(directory());
+        String threading = Config.driverThreading.get();
+        if (threading != null && !threading.isBlank()) {
+            context.threadingMode(ThreadingMode.valueOf(threading.trim().toUpperCase().replace('-', '_')));
+        }
+        int termLength = Config.driverTermLength.get();
+        if (termLength > 0) {
+            context.publicationTermBufferLength(termLength);
+            context.ipcTermBufferLength(termLength);
+        }
+        if (Config.driverMtu.get() > 0) {
+            context.mtuLength(Config.driverMtu.get());
+        }
+        if (Config.driverSendBuffer.get() > 0) {
+            context.socketSndbufLength(Config.driverSendBuffer.get());
+        }
+        if (Config.driverReceiveBuffer.get() > 0) {
+            context.socketRcvbufLength(Config.driverReceiveBuffer.get());
+        }
+        if (configured(Config.driverConductorIdleStrategy)) {
+            context.conductorIdleStrategy(IdleStrategies.create(Config.driverConductorIdleStrategy));
+        }
+        if (configured(Config.driverSenderIdleStrategy)) {
+            context.senderIdleStrategy(IdleStrategies.create(Config.driverSenderIdleStrategy));
+        }
+        if (configured(Config.driverReceiverIdleStrategy)) {
+            context.receiverIdleStrategy(IdleStrategies.create(Config.driverReceiverIdleStrategy));
+        }
+        if (configured(Config.driverSharedIdleStrategy)) {
+            context.sharedIdleStrategy(IdleStrategies.create(Config.driverSharedIdleStrategy));
+            context.sharedNetworkIdleStrategy(IdleStrategies.create(Config.driverSharedIdleStrategy));
+        }
+        return context;
+    }
+
+    private static boolean configured(StringValue value) {
+        return value.get() != null && !value.get().isBlank();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.BitUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.*;
+import org.agrona.concurrent.ringbuffer.OneToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RecordDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.capeph.config.Config;
+import org.capeph.pool.MessagePool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Dispatcher that takes encoded frames instead of decoded messages.
+ * The receiving thread copies each frame into an off-heap ring buffer, and the dispatcher thread
+ * decodes it into messages from its own pool. The message objects are then only used by the
+ * dispatcher thread, so no pooled objects move between threads on the receive path.
+ * The ring buffer has a single producer, so frames and messages must be offered from one thread.
+ * When the ring buffer is full the back pressure policy from the config is applied. Only the
+ * dispatcher thread may take frames out of the ring buffer, so DROP_OLDEST drops the newest frame
+ * instead, and SPILL waits like BLOCK.
+ */
+public class FrameDispatcher implements MessageDispatcher, Agent {
+
+    private static final int FRAME_TYPE = 1;
+    private static final int FENCE_TYPE = 2;
+    private static final int FENCE_QUEUE = 16;
+
+    private final Logger log = LogManager.getLogger(FrameDispatcher.class);
+    private final ICodec codec;
+    private final MessagePool sharedPool;
+    private final MessagePool localPool;
+    private final Dispatcher handlers;
+    private final OneToOneRingBuffer frames;
+    private final OneToOneConcurrentArrayQueue<Runnable> fences = new OneToOneConcurrentArrayQueue<>(FENCE_QUEUE);
+    private final IdleStrategy waitStrategy;
+    private final BackpressurePolicy policy;
+    private final long blockTimeoutNs;
+    private final BackpressureCounters counters = new BackpressureCounters();
+    private final org.agrona.concurrent.MessageHandler frameHandler = this::onFrame;
+    private final int batchLimit;
+    private final String roleName;
+    private int largestRecord = RecordDescriptor.ALIGNMENT;   // only used by the offering thread
+    private AgentRunner runner;
+
+    /**
+     * @param idleStrategy idle strategy for the dispatcher agent
+     * @param codec codec used to decode the frames
+     * @param sharedPool pool of the messages passed to accept
+     * @param placement thread for the dispatcher agent, or null if the caller runs the agent itself
+     */
+    public FrameDispatcher(IdleStrategy idleStrategy, ICodec codec, MessagePool sharedPool, AgentPlacement placement) {
+        this.codec = codec;
+        this.sharedPool = sharedPool;
+        this.localPool = new MessagePool(m -> codec.clear((ReusableMessage) m));
+        this.handlers = new Dispatcher(null, localPool, true, PaddedRingBuffer.ProducerMode.SINGLE, null);
+        int capacity = 1 << Config.handoffSize.get();
+        frames = new OneToOneRingBuffer(new UnsafeBuffer(
+                ByteBuffer.allocateDirect(capacity + RingBufferDescriptor.TRAILER_LENGTH)));
+        batchLimit = Math.max(1, Config.dispatcherBatch.get());
+        waitStrategy = IdleStrategies.create(Config.backpressureIdleStrategy);
+        policy = BackpressurePolicy.configured();
+        blockTimeoutNs = TimeUnit.MILLISECONDS.toNanos(Config.backpressureTimeout.get());
+        roleName = placement == null ? "frame-dispatcher" : placement.getThreadName();
+        if (placement != null) {
+            runner = new AgentRunner(idleStrategy, this::errorHandler, null, this);
+            placement.start(runner);
+        }
+    }
+
+    private void errorHandler(Throwable throwable) {
+        log.error("Caught exception ", throwable);
+    }
+
+    /**
+     * copy an encoded message to the dispatcher thread, the back pressure policy decides what
+     * happens when the ring buffer is full
+     * @param buffer buffer holding the message
+     * @param offset start of the message header
+     * @param length length of the encoded message
+     */
+    public void offer(DirectBuffer buffer, int offset, int length) {
+        track(length);
+        if (frames.write(FRAME_TYPE, buffer, offset, length)) {
+            return;
+        }
+        if (waitsForRoom()) {
+            long deadline = System.nanoTime() + blockTimeoutNs;
+            waitStrategy.reset();
+            while (!frames.write(FRAME_TYPE, buffer, offset, length)) {
+                if (timedOut(deadline)) {
+                    return;
+                }
+                waitStrategy.idle();
+            }
+        } else {
+            counters.droppedNewest.incrementAndGet();
+        }
+    }
+
+    /**
+     * encode a message into the ring buffer and return it to the pool it came from
+     * @param message message to dispatch
+     */
+    @Override
+    public void accept(ReusableMessage message) {
+        int length = codec.encodedLength(message);
+        track(length);
+        int index = frames.tryClaim(FRAME_TYPE, length);
+        if (index <= 0 && waitsForRoom()) {
+            index = claim(length);
+        }
+        else if (index <= 0) {
+            counters.droppedNewest.incrementAndGet();
+        }
+        if (index <= 0) {
+            sharedPool.reuseMessage(message);
+            return;
+        }
+        try {
+            codec.encode(message, frames.buffer(), index);
+            Header.writeCorrelation(frames.buffer(), index, message);
+            frames.commit(index);
+        } catch (RuntimeException e) {
+            frames.abort(index);
+            throw e;
+        } finally {
+            sharedPool.reuseMessage(message);
+        }
+    }
+
+    // wait for room until the block timeout expires, 0 when it does
+    private int claim(int length) {
+        long deadline = System.nanoTime() + blockTimeoutNs;
+        waitStrategy.reset();
+        int index;
+        while ((index = frames.tryClaim(FRAME_TYPE, length)) <= 0) {
+            if (timedOut(deadline)) {
+                return 0;
+            }
+            waitStrategy.idle();
+        }
+        return index;
+    }
+
+    private boolean waitsForRoom() {
+        return policy == BackpressurePolicy.BLOCK || policy == BackpressurePolicy.SPILL;
+    }
+
+    private boolean timedOut(long deadline) {
+        if (blockTimeoutNs > 0 && System.nanoTime() - deadline > 0) {
+            counters.timedOut.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void track(int length) {
+        int record = BitUtil.align(length + RecordDescriptor.HEADER_LENGTH, RecordDescriptor.ALIGNMENT);
+        if (record > largestRecord) {
+            largestRecord = record;
+        }
+    }
+
+    private void onFrame(int msgTypeId, MutableDirectBuffer buffer, int index, int length) {
+        if (msgTypeId == FENCE_TYPE) {
+            fences.poll().run();
+            return;
+        }
+        ReusableMessage message = codec.decode(buffer, index, localPool);
+        Header.readCorrelation(message, buffer, index);
+        handlers.process(message);
+    }
+
+    @Override
+    public void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                                  HandlerExecution execution) {
+        localPool.addMessagePool(messageClass);
+        handlers.addMessageHandler(messageClass, messageConsumer, execution);
+    }
+
+    @Override
+    public void addMessageType(Class<? extends ReusableMessage> messageClass) {
+        localPool.addMessagePool(messageClass);
+    }
+
+    @Override
+    public void addTypedHandler(TypedDispatch dispatch, HandlerExecution execution) {
+        for (Class<? extends ReusableMessage> messageClass : dispatch.messageTypes()) {
+            localPool.addMessagePool(messageClass);
+        }
+        handlers.addTypedHandler(dispatch, execution);
+    }
+
+    @Override
+    public long schedule(ReusableMessage message, long delayNs, long periodNs) {
+        return handlers.schedule(message, delayNs, periodNs);
+    }
+
+    @Override
+    public void cancelTimer(long timerId) {
+        handlers.cancelTimer(timerId);
+    }
+
+    @Override
+    public void routeReplies(PendingReplies replies) {
+        handlers.routeReplies(replies);
+    }
+
+    /**
+     * the fence takes a record in the ring buffer to keep its place among the frames, and the action
+     * is queued beside it. Must be called from the thread that offers the frames
+     */
+    @Override
+    public boolean fence(Runnable action) {
+        int index = frames.tryClaim(FENCE_TYPE, Integer.BYTES);
+        if (index <= 0) {
+            return false;
+        }
+        if (!fences.offer(action)) {
+            frames.abort(index);
+            return false;
+        }
+        frames.commit(index);
+        return true;
+    }
+
+    /**
+     * @return frames dropped or timed out since the ring buffer was full
+     */
+    @Override
+    public BackpressureCounters counters() {
+        return counters;
+    }
+
+    /**
+     * @return frames of the largest size seen so far that still fit in the ring buffer, leaving room
+     * for the padding written when a frame does not fit before the end of the buffer
+     */
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, frames.capacity() - frames.size() - largestRecord) / largestRecord;
+    }
+
+    @Override
+    public void stop() {
+        if (runner != null) {
+            runner.close();
+        }
+        handlers.stop();
+    }
+
+    @Override
+    public int doWork() {
+        return handlers.pollTimers() + frames.read(frameHandler, batchLimit);
+    }
+
+    @Override
+    public String roleName() {
+        return roleName;
+    }
+}
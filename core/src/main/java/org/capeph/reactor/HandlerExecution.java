@@ -0,0 +1,20 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Where the handlers of a message type are run
+ */
+public enum HandlerExecution {
+    /**
+     * directly on the dispatcher thread, for handlers that never block
+     */
+    DISPATCHER,
+    /**
+     * on a virtual thread, for handlers that block (database writes, file IO..).
+     * Messages of the type are still handled one at a time and in order,
+     * and each message is returned to the pool when its handlers are done
+     */
+    VIRTUAL_THREAD
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Aeron;
+import io.aeron.ChannelUri;
+import io.aeron.CommonContext;
+import io.aeron.Subscription;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.archive.codecs.RecordingSignal;
+import io.aeron.archive.codecs.SourceLocation;
+import io.aeron.logbuffer.Header;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.Agent;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.capeph.config.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable inbound stream of a reactor, recorded by an Aeron Archive on local disk.
+ * The archive records the channels of the reactor, one recording for every sender, and the reactor
+ * reads the messages from replays that follow the recordings. The receiving thread notes the position
+ * of every replayed message it hands to the dispatcher, and queues a fence behind them when a checkpoint
+ * is due. The dispatcher acknowledges the positions when it reaches the fence, and the acknowledged
+ * position of each recording is saved to a file every checkpoint. A restarted reactor replays what was
+ * recorded after the saved positions before it continues with the new recordings, so messages that were
+ * still queued or being handled are delivered again, as are messages handled after the last checkpoint.
+ */
+final class InboundLog implements Agent {
+
+    private static final String REPLAY_CHANNEL = "aeron:ipc";
+    private static final long NO_POSITION = -1;
+
+    /**
+     * a recording to replay, found at startup or announced by the archive
+     */
+    private record Pending(long recordingId, long position, boolean live) {
+    }
+
+    private final Logger log = LogManager.getLogger(InboundLog.class);
+    private final AeronArchive archive;
+    private final String alias;
+    private final int streamId;
+    private final int replayStream;
+    private final Subscription replay;
+    private final Path positionFile;
+    private final Map<Integer, Long> sessions = new ConcurrentHashMap<>();    // replay image session to recording
+    private final Map<Long, Long> positions = new ConcurrentHashMap<>();      // recording to handled position
+    private final Long2LongHashMap handedOff = new Long2LongHashMap(NO_POSITION);    // replay session to position, receiving thread only
+    private volatile Long2LongHashMap handled = new Long2LongHashMap(NO_POSITION);   // acknowledged by the dispatcher
+    private volatile boolean fenceDue = true;
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final long checkpointNs;
+    private long nextCheckpoint;
+    private volatile boolean changed = false;
+
+    /**
+     * record the channels of a reactor and start replaying them from the saved positions
+     * @param aeron client of the reactor
+     * @param name name of the reactor, the recordings and positions of a reactor are found by name
+     * @param streamId inbound stream of the reactor
+     * @param channels inbound channels of the reactor
+     */
+    InboundLog(Aeron aeron, String name, int streamId, List<String> channels) {
+        this.alias = "reactor-" + name.toLowerCase();
+        this.streamId = streamId;
+        this.replayStream = Config.archiveStreamBase.get() + 2 * streamId;
+        this.positionFile = Path.of(ArchiveProfile.directory(), alias + ".positions");
+        this.checkpointNs = TimeUnit.MILLISECONDS.toNanos(Config.archiveCheckpoint.get());
+        archive = ArchiveProfile.connect(aeron, replayStream + 1, this::onSignal);
+        replay = aeron.addSubscription(REPLAY_CHANNEL, replayStream);
+        loadPositions();
+        for (String channel : channels) {
+            stopRecording(channel);
+        }
+        replayRecorded();
+        for (String channel : channels) {
+            SourceLocation location = channel.startsWith(REPLAY_CHANNEL) ? SourceLocation.LOCAL : SourceLocation.REMOTE;
+            archive.startRecording(recordingChannel(channel), streamId, location);
+            log.info("Recording {} on stream {} to {}", channel, streamId, ArchiveProfile.directory());
+        }
+        startPending();
+        nextCheckpoint = System.nanoTime() + checkpointNs;
+    }
+
+    /**
+     * @return subscription for the replayed messages, polled by the reactor instead of the channels
+     */
+    Subscription subscription() {
+        return replay;
+    }
+
+    // the alias marks the recordings of the reactor and is ignored when the subscription is matched
+    private String recordingChannel(String channel) {
+        ChannelUri uri = ChannelUri.parse(channel);
+        uri.put(CommonContext.ALIAS_PARAM_NAME, alias);
+        return uri.toString();
+    }
+
+    // a recording left by an earlier run would record into recordings nobody replays
+    private void stopRecording(String channel) {
+        String endpoint = ChannelUri.parse(channel).get(CommonContext.ENDPOINT_PARAM_NAME);
+        List<Long> stale = new ArrayList<>();
+        archive.listRecordingSubscriptions(0, Integer.MAX_VALUE, endpoint == null ? channel : endpoint, streamId, true,
+                (controlSessionId, correlationId, subscriptionId, stream, strippedChannel) -> stale.add(subscriptionId));
+        for (long subscriptionId : stale) {
+            log.info("Stopping earlier recording of {} on stream {}", channel, streamId);
+            archive.stopRecording(subscriptionId);
+        }
+    }
+
+    // replay what is left of the recordings of earlier runs, and remove the ones that are done
+    private void replayRecorded() {
+        List<long[]> recordings = new ArrayList<>();
+        archive.listRecordingsForUri(0, Integer.MAX_VALUE, "", streamId,
+                (controlSessionId, correlationId, recordingId, startTimestamp, stopTimestamp, startPosition,
+                 stopPosition, initialTermId, segmentFileLength, termBufferLength, mtuLength, sessionId, stream,
+                 strippedChannel, originalChannel, sourceIdentity) -> {
+                    if (alias.equals(ChannelUri.parse(originalChannel).get(CommonContext.ALIAS_PARAM_NAME))) {
+                        recordings.add(new long[] {recordingId, startPosition, stopPosition});
+                    }
+                });
+        for (long[] recording : recordings) {
+            long recordingId = recording[0];
+            long from = Math.max(recording[1], positions.getOrDefault(recordingId, recording[1]));
+            long stopPosition = recording[2];
+            if (stopPosition != AeronArchive.NULL_POSITION && from >= stopPosition) {
+                archive.purgeRecording(recordingId);
+                positions.remove(recordingId);
+                changed = true;
+            }
+            else {
+                log.info("Replaying recording {} from {} to {}", recordingId, from, stopPosition);
+                pending.add(new Pending(recordingId, from, stopPosition == AeronArchive.NULL_POSITION));
+            }
+        }
+    }
+
+    // only sent to the session that started the recording. may be called while the archive client
+    // waits for a response, so the replay is started later
+    private void onSignal(long controlSessionId, long correlationId, long recordingId, long subscriptionId,
+                          long position, RecordingSignal signal) {
+        if (signal == RecordingSignal.START) {
+            pending.add(new Pending(recordingId, position, true));
+        }
+    }
+
+    // the session is kept when the replay ends, its last messages may be acknowledged later
+    private int startPending() {
+        int work = 0;
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            // a live replay follows the recording until it stops
+            long length = next.live() ? Long.MAX_VALUE : AeronArchive.NULL_LENGTH;
+            long replaySession = archive.startReplay(next.recordingId(), next.position(), length, REPLAY_CHANNEL,
+                    replayStream);
+            sessions.put((int) replaySession, next.recordingId());
+            work++;
+        }
+        return work;
+    }
+
+    /**
+     * note a replayed message handed to the dispatcher, called by the receiving thread
+     * @param header header of the message, or of the last fragment of a reassembled message
+     */
+    void handedOff(Header header) {
+        handedOff.put(header.sessionId(), header.position());
+    }
+
+    /**
+     * when a checkpoint is due, queue a fence behind the messages handed to the dispatcher so far, and
+     * acknowledge their positions when the dispatcher reaches it. Called by the receiving thread after polling
+     * @param dispatcher dispatcher the replayed messages are handed to
+     * @return 1 if a fence was queued
+     */
+    int fence(MessageDispatcher dispatcher) {
+        if (!fenceDue || handedOff.isEmpty()) {
+            return 0;
+        }
+        Long2LongHashMap acknowledged = new Long2LongHashMap(handedOff);
+        if (!dispatcher.fence(() -> handled = acknowledged)) {
+            return 0;   // tried again after the next poll
+        }
+        fenceDue = false;
+        return 1;
+    }
+
+    /**
+     * save the position of the last handled message of every recording, and ask for a new fence
+     */
+    void checkpoint() {
+        handled.forEachLong((session, position) -> {
+            Long recordingId = sessions.get((int) session);
+            if (recordingId != null) {
+                Long previous = positions.put(recordingId, position);
+                changed |= previous == null || previous != position;
+            }
+        });
+        fenceDue = true;
+        if (changed) {
+            savePositions();
+            changed = false;
+        }
+    }
+
+    private void loadPositions() {
+        if (!Files.exists(positionFile)) {
+            return;
+        }
+        Properties saved = new Properties();
+        try (InputStream in = Files.newInputStream(positionFile)) {
+            saved.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read replay positions from " + positionFile, e);
+        }
+        saved.forEach((recording, position) ->
+                positions.put(Long.parseLong((String) recording), Long.parseLong((String) position)));
+    }
+
+    // written to a new file and moved in place, so a crash never leaves a partial file
+    private void savePositions() {
+        Properties saved = new Properties();
+        positions.forEach((recording, position) -> saved.setProperty(recording.toString(), position.toString()));
+        Path next = positionFile.resolveSibling(positionFile.getFileName() + ".next");
+        try {
+            try (OutputStream out = Files.newOutputStream(next)) {
+                saved.store(out, "replayed position by recording id");
+            }
+            Files.move(next, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Could not save replay positions to {}", positionFile, e);
+        }
+    }
+
+    @Override
+    public int doWork() {
+        int work = archive.pollForRecordingSignals();
+        work += startPending();
+        long now = System.nanoTime();
+        if (now >= nextCheckpoint) {
+            checkpoint();
+            nextCheckpoint = now + checkpointNs;
+        }
+        return work;
+    }
+
+    /**
+     * save the positions and close the archive client, the recordings continue until the reactor is started again
+     */
+    @Override
+    public void onClose() {
+        checkpoint();
+        archive.close();
+    }
+
+    @Override
+    public String roleName() {
+        return alias + "-archive";
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Int2ObjectHashMap;
+
+import java.util.function.Consumer;
+
+/**
+ * Handlers that are called on the receiving thread with a flyweight over the fragment,
+ * so the message is never decoded, pooled or queued.
+ * Registration replaces the whole map, so it can be done while fragments are being received.
+ */
+final class InlineHandlers {
+
+    private static final class Entry<F extends MessageFlyweight> {
+        private final F flyweight;
+        private final Consumer<F> handler;
+
+        private Entry(F flyweight, Consumer<F> handler) {
+            this.flyweight = flyweight;
+            this.handler = handler;
+        }
+
+        private void handle(DirectBuffer buffer, int offset, int length) {
+            flyweight.wrap(buffer, offset, length);
+            handler.accept(flyweight);
+        }
+    }
+
+    private volatile Int2ObjectHashMap<Entry<?>> handlers = new Int2ObjectHashMap<>();
+
+    /**
+     * @param flyweight view used for every message of its type, only touched by the receiving thread
+     * @param handler handler for the message type, must not keep the flyweight after it returns
+     */
+    synchronized <F extends MessageFlyweight> void register(F flyweight, Consumer<F> handler) {
+        int type = flyweight.messageType();
+        if (handlers.containsKey(type)) {
+            throw new IllegalStateException("Inline handler already registered for message type " + type);
+        }
+        Int2ObjectHashMap<Entry<?>> updated = new Int2ObjectHashMap<>(handlers);
+        updated.put(type, new Entry<>(flyweight, handler));
+        handlers = updated;
+    }
+
+    boolean isEmpty() {
+        return handlers.isEmpty();
+    }
+
+    /**
+     * @param buffer buffer holding the fragment
+     * @param offset start of the message header
+     * @param length length of the fragment
+     * @return true if the message was handled inline, false if it should be decoded
+     */
+    boolean onFragment(DirectBuffer buffer, int offset, int length) {
+        Int2ObjectHashMap<Entry<?>> current = handlers;
+        if (current.isEmpty()) {
+            return false;
+        }
+        Entry<?> entry = current.get(Header.getMessageType(buffer, offset));
+        if (entry == null) {
+            return false;
+        }
+        entry.handle(buffer, offset, length);
+        return true;
+    }
+}
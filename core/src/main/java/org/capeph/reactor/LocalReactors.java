@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The reactors running in this process, by name.
+ * Messages to a reactor found here are copied straight into its dispatcher,
+ * without being encoded or passing through the media driver.
+ */
+final class LocalReactors {
+
+    private static final Map<String, Reactor> reactors = new ConcurrentHashMap<>();
+
+    private LocalReactors() {
+    }
+
+    static void register(String name, Reactor reactor) {
+        reactors.put(name.toLowerCase(), reactor);
+    }
+
+    /**
+     * @param name name of the reactor
+     * @return the reactor, or null if it is not running in this process
+     */
+    static Reactor get(String name) {
+        return reactors.get(name.toLowerCase());
+    }
+}
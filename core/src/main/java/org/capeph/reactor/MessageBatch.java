@@ -0,0 +1,115 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.MutableDirectBuffer;
+
+/**
+ * Several messages encoded back to back and sent as one message.
+ * The batch starts with a header of type {@link Header#BATCH} and the number of messages,
+ * followed by the length and the encoding of each message. The receiving reactor unpacks
+ * the batch and handles the messages one by one, in the order they were added.
+ * Messages are encoded when they are added, so they can be reused as soon as add returns.
+ * A batch is reused after it is sent and is not thread safe.
+ */
+public final class MessageBatch {
+
+    private static final int VERSION = 1;
+    static final int COUNT_OFFSET = Header.length();
+    static final int FIRST_MESSAGE_OFFSET = COUNT_OFFSET + Integer.BYTES;
+
+    private final ICodec codec;
+    private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer();
+    private int count = 0;
+    private int limit = FIRST_MESSAGE_OFFSET;
+
+    MessageBatch(ICodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * encode a message at the end of the batch
+     * @param message message to add
+     * @return this batch
+     */
+    public MessageBatch add(ReusableMessage message) {
+        int length = codec.encodedLength(message);
+        buffer.checkLimit(limit + Integer.BYTES + length);
+        limit = encode(codec, buffer, limit, message, length);
+        count++;
+        return this;
+    }
+
+    /**
+     * @return number of messages in the batch
+     */
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * remove all messages from the batch
+     */
+    public void clear() {
+        count = 0;
+        limit = FIRST_MESSAGE_OFFSET;
+    }
+
+    /**
+     * write the batch header, called before the batch is sent
+     * @return the encoded batch
+     */
+    DirectBuffer seal() {
+        writeHeader(buffer, 0, count);
+        return buffer;
+    }
+
+    /**
+     * @return encoded length of the batch, including the header
+     */
+    int length() {
+        return limit;
+    }
+
+    /**
+     * @param codec codec for the messages
+     * @param message message to add to a batch
+     * @return space needed for the message in a batch
+     */
+    static int encodedLength(ICodec codec, ReusableMessage message) {
+        return Integer.BYTES + codec.encodedLength(message);
+    }
+
+    /**
+     * @param buffer target buffer
+     * @param offset start of the batch
+     * @param count number of messages in the batch
+     */
+    static void writeHeader(MutableDirectBuffer buffer, int offset, int count) {
+        Header.writeHeader(buffer, offset, Header.BATCH, VERSION);
+        buffer.putInt(offset + COUNT_OFFSET, count);
+    }
+
+    /**
+     * encode one message of a batch, the message is never part of a request
+     * @param codec codec for the message
+     * @param buffer target buffer
+     * @param offset where the message should be written
+     * @param message message to encode
+     * @param length encoded length of the message
+     * @return offset of the next message
+     */
+    static int encode(ICodec codec, MutableDirectBuffer buffer, int offset, ReusableMessage message, int length) {
+        buffer.putInt(offset, length);
+        codec.encode(message, buffer, offset + Integer.BYTES);
+        Header.writeCorrelation(buffer, offset + Integer.BYTES, 0L, 0);
+        return offset + Integer.BYTES + length;
+    }
+}
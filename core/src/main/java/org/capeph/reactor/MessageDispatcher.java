@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import java.util.function.Consumer;
+
+/**
+ * Receives decoded messages and hands them to the registered message handlers
+ */
+public interface MessageDispatcher extends Consumer<ReusableMessage> {
+
+    /**
+     * register a message handler for a message type
+     * @param messageClass - type of message
+     * @param messageConsumer - handler for the message type
+     */
+    default void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer) {
+        addMessageHandler(messageClass, messageConsumer, HandlerExecution.DISPATCHER);
+    }
+
+    /**
+     * register a message handler for a message type
+     * @param messageClass - type of message
+     * @param messageConsumer - handler for the message type
+     * @param execution - where the handlers for the message type are run
+     */
+    void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                           HandlerExecution execution);
+
+    /**
+     * prepare for messages of a type that has no handlers, such as replies
+     * @param messageClass - type of message
+     */
+    default void addMessageType(Class<? extends ReusableMessage> messageClass) {
+    }
+
+    /**
+     * register a generated handler for all the message types it handles
+     * @param dispatch - generated dispatch wrapping the handler object
+     * @param execution - where the handlers for the message types are run
+     */
+    void addTypedHandler(TypedDispatch dispatch, HandlerExecution execution);
+
+    /**
+     * handle a message on the dispatcher thread after a delay, and optionally repeat it at a fixed rate.
+     * A one shot message is returned to the pool after it is handled, a periodic message when it is cancelled.
+     * @param message - message to handle
+     * @param delayNs - nanoseconds until the message is handled the first time
+     * @param periodNs - nanoseconds between repeats, 0 to handle the message once
+     * @return id of the timer, used to cancel it
+     */
+    long schedule(ReusableMessage message, long delayNs, long periodNs);
+
+    /**
+     * stop a timer, does nothing if it has already expired
+     * @param timerId - id returned by schedule
+     */
+    void cancelTimer(long timerId);
+
+    /**
+     * hand replies to the continuations of the pending requests instead of the message handlers,
+     * and time out the requests from the dispatcher thread
+     * @param replies - the outstanding requests
+     */
+    void routeReplies(PendingReplies replies);
+
+    /**
+     * run an action on the dispatcher thread once the messages accepted before it from the calling thread have
+     * been handled, or dropped by the back pressure policy. Messages with handlers on virtual threads count as
+     * handled when they are handed to the thread
+     * @param action - run when the messages before it are done
+     * @return false if there was no room for the fence, the caller tries again later
+     */
+    boolean fence(Runnable action);
+
+    /**
+     * @return how often the back pressure policy has been applied
+     */
+    BackpressureCounters counters();
+
+    /**
+     * @return number of messages that can be accepted without applying the back pressure policy
+     */
+    default int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * stop the dispatcher threads
+     */
+    void stop();
+}
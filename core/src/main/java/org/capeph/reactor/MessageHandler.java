@@ -8,6 +8,7 @@ import org.apache.logging.log4j.Logger;
 import org.capeph.pool.MessagePool;
 
 import java.util.Objects;
+import java.util.function.IntConsumer;
 
 public final class MessageHandler implements FragmentHandler {
 
@@ -15,16 +16,65 @@ public final class MessageHandler implements FragmentHandler {
 
     private final ICodec codec;
     private final MessagePool messagePool;
-    private final Dispatcher dispatcher;
+    private final MessageDispatcher dispatcher;
+    private final InlineHandlers inlineHandlers;
+    private final FrameDispatcher frames;   // set when the frames are handed off encoded
+    private final IntConsumer requests;
 
-    public MessageHandler(ICodec codec, MessagePool messagePool, Dispatcher dispatcher) {
+    public MessageHandler(ICodec codec, MessagePool messagePool, MessageDispatcher dispatcher) {
+        this(codec, messagePool, dispatcher, new InlineHandlers(), null);
+    }
+
+    MessageHandler(ICodec codec, MessagePool messagePool, MessageDispatcher dispatcher, InlineHandlers inlineHandlers,
+                   IntConsumer requests) {
         this.codec = codec;
         this.messagePool = messagePool;
         this.dispatcher = dispatcher;
+        this.inlineHandlers = inlineHandlers;
+        this.requests = requests;
+        this.frames = dispatcher instanceof FrameDispatcher frameDispatcher ? frameDispatcher : null;
     }
 
     @Override
     public void onFragment(DirectBuffer buffer, int offset, int length, Header header) {
+        if (length >= MessageBatch.FIRST_MESSAGE_OFFSET
+                && org.capeph.reactor.Header.getMessageType(buffer, offset) == org.capeph.reactor.Header.BATCH) {
+            onBatch(buffer, offset);
+        } else {
+            onMessage(buffer, offset, length);
+        }
+    }
+
+    // the messages of a batch are handled as if they had arrived one by one
+    private void onBatch(DirectBuffer buffer, int offset) {
+        int count = buffer.getInt(offset + MessageBatch.COUNT_OFFSET);
+        int position = offset + MessageBatch.FIRST_MESSAGE_OFFSET;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt(position);
+            onMessage(buffer, position + Integer.BYTES, length);
+            position += Integer.BYTES + length;
+        }
+    }
+
+    private void onMessage(DirectBuffer buffer, int offset, int length) {
+        if (requests != null) {
+            int replyTo = org.capeph.reactor.Header.getReplyTo(buffer, offset);
+            if (replyTo > 0) {
+                requests.accept(replyTo);   // the reply publication is ready by the time the handler replies
+            }
+        }
+        try {
+            if (inlineHandlers.onFragment(buffer, offset, length)) {
+                return;   // handled in place, nothing to decode
+            }
+        } catch (Throwable th) {
+            log.error("Inline handler threw error ", th);
+            return;
+        }
+        if (frames != null) {
+            frames.offer(buffer, offset, length);   // decoded on the dispatcher thread
+            return;
+        }
         ReusableMessage msg = getMessage(buffer, offset);
         if (msg != null) {
             try {
@@ -36,7 +86,9 @@ public final class MessageHandler implements FragmentHandler {
     }
 
     private ReusableMessage getMessage(DirectBuffer buffer, int offset) {
-        return codec.decode(buffer, offset, messagePool);
+        ReusableMessage msg = codec.decode(buffer, offset, messagePool);
+        org.capeph.reactor.Header.readCorrelation(msg, buffer, offset);
+        return msg;
     }
 
     @Override
@@ -47,12 +99,15 @@ public final class MessageHandler implements FragmentHandler {
         return Objects.equals(this.codec, that.codec) &&
                 Objects.equals(this.messagePool, that.messagePool) &&
                 Objects.equals(this.dispatcher, that.dispatcher) &&
+                Objects.equals(this.inlineHandlers, that.inlineHandlers) &&
+                Objects.equals(this.frames, that.frames) &&
+                Objects.equals(this.requests, that.requests) &&
                 Objects.equals(this.log, that.log);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(codec, messagePool, dispatcher, log);
+        return Objects.hash(codec, messagePool, dispatcher, inlineHandlers, frames, requests, log);
     }
 
     @Override
@@ -61,6 +116,9 @@ public final class MessageHandler implements FragmentHandler {
                 "codec=" + codec + ", " +
                 "messagePool=" + messagePool + ", " +
                 "dispatcher=" + dispatcher + ", " +
+                "inlineHandlers=" + inlineHandlers + ", " +
+                "frames=" + frames + ", " +
+                "requests=" + requests + ", " +
                 "log=" + log + ']';
     }
 
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.BitUtil;
+import org.agrona.DeadlineTimerWheel;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.Hashing;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.ManyToManyConcurrentArrayQueue;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RecordDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.capeph.config.Config;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Delayed and periodic messages for a dispatcher, kept in a hashed timer wheel.
+ * Timers can be scheduled and cancelled from any thread, the requests are queued and applied
+ * when the dispatcher polls, so the wheel is only touched by the dispatcher thread and the
+ * messages are handled on the same thread as all other messages.
+ * The timers are kept in preallocated slots that are reused when a timer expires or is cancelled,
+ * and the requests only carry the timer id and times, so scheduling does not allocate.
+ */
+final class MessageTimers implements DeadlineTimerWheel.TimerHandler {
+
+    private static final int COMMAND_LIMIT = 64;
+    private static final int EXPIRY_LIMIT = 64;
+    private static final long NO_TIMER = -1;
+    private static final int GENERATION_MASK = 0xFFFF;
+    private static final int SCHEDULE = 1;
+    private static final int CANCEL = 2;
+    private static final int ID_OFFSET = 0;
+    private static final int DEADLINE_OFFSET = ID_OFFSET + Long.BYTES;
+    private static final int PERIOD_OFFSET = DEADLINE_OFFSET + Long.BYTES;
+    private static final int SCHEDULE_LENGTH = PERIOD_OFFSET + Long.BYTES;
+
+    private final ManyToOneRingBuffer commands;
+    private final ManyToManyConcurrentArrayQueue<Integer> free;
+    private final Integer[] slotKeys;               // boxed once, so freeing a slot does not allocate
+    private final int[] generations;                // owned by the thread that took the slot
+    private final ReusableMessage[] messages;       // set before the schedule request is queued
+    private final long[] ids;                       // the rest is only used by the dispatcher thread
+    private final long[] deadlines;
+    private final long[] periods;
+    private final long[] wheelIds;
+    private final Long2LongHashMap slots;           // wheel id to slot
+    private final DeadlineTimerWheel wheel;
+    private final MessageHandler applyCommand = this::apply;
+    private final Consumer<ReusableMessage> fire;
+    private final Consumer<ReusableMessage> fireRetained;
+    private final Consumer<ReusableMessage> release;
+
+    /**
+     * @param fire handles a one shot message and releases it
+     * @param fireRetained handles a periodic message without releasing it
+     * @param release returns a cancelled message to its pool
+     */
+    MessageTimers(Consumer<ReusableMessage> fire, Consumer<ReusableMessage> fireRetained, Consumer<ReusableMessage> release) {
+        this.fire = fire;
+        this.fireRetained = fireRetained;
+        this.release = release;
+        int recordLength = BitUtil.align(RecordDescriptor.HEADER_LENGTH + SCHEDULE_LENGTH, RecordDescriptor.ALIGNMENT);
+        int capacity = BitUtil.findNextPositivePowerOfTwo(Math.max(2, Config.timerQueue.get()) * recordLength);
+        commands = new ManyToOneRingBuffer(new UnsafeBuffer(
+                ByteBuffer.allocateDirect(capacity + RingBufferDescriptor.TRAILER_LENGTH)));
+        int timers = Math.max(2, Config.timerCapacity.get());
+        free = new ManyToManyConcurrentArrayQueue<>(timers);
+        slotKeys = new Integer[timers];
+        for (int slot = 0; slot < timers; slot++) {
+            slotKeys[slot] = slot;
+            free.offer(slotKeys[slot]);
+        }
+        generations = new int[timers];
+        messages = new ReusableMessage[timers];
+        ids = new long[timers];
+        deadlines = new long[timers];
+        periods = new long[timers];
+        wheelIds = new long[timers];
+        Arrays.fill(wheelIds, NO_TIMER);
+        slots = new Long2LongHashMap(2 * timers, Hashing.DEFAULT_LOAD_FACTOR, NO_TIMER);
+        wheel = new DeadlineTimerWheel(TimeUnit.NANOSECONDS, System.nanoTime(),
+                1L << Config.timerResolution.get(), 1 << Config.timerTicks.get());
+    }
+
+    /**
+     * @param message message to handle when the timer expires
+     * @param delayNs time until the first expiry
+     * @param periodNs time between expiries, 0 for a one shot timer
+     * @return id of the timer
+     */
+    long schedule(ReusableMessage message, long delayNs, long periodNs) {
+        Integer key = free.poll();
+        if (key == null) {
+            throw new IllegalStateException("Too many active timers");
+        }
+        int slot = key;
+        // the generation tells a cancel of an expired timer from a cancel of the next timer in the slot.
+        // it is kept short so the id has room for the partition a partitioned dispatcher adds
+        int generation = (generations[slot] + 1) & GENERATION_MASK;
+        generations[slot] = generation;
+        long id = ((long) generation << 32) | slot;
+        messages[slot] = message;
+        int index = commands.tryClaim(SCHEDULE, SCHEDULE_LENGTH);
+        if (index <= 0) {
+            messages[slot] = null;
+            free.offer(key);
+            throw new IllegalStateException("Timer request queue is full");
+        }
+        MutableDirectBuffer buffer = commands.buffer();
+        buffer.putLong(index + ID_OFFSET, id);
+        buffer.putLong(index + DEADLINE_OFFSET, System.nanoTime() + Math.max(0, delayNs));
+        buffer.putLong(index + PERIOD_OFFSET, periodNs);
+        commands.commit(index);
+        return id;
+    }
+
+    /**
+     * @param id timer to stop, a periodic message is returned to the pool
+     */
+    void cancel(long id) {
+        int index = commands.tryClaim(CANCEL, Long.BYTES);
+        if (index <= 0) {
+            throw new IllegalStateException("Timer request queue is full");
+        }
+        commands.buffer().putLong(index + ID_OFFSET, id);
+        commands.commit(index);
+    }
+
+    /**
+     * apply queued requests and handle expired timers, only called by the dispatcher thread
+     * @param nowNs current time from System.nanoTime
+     * @return amount of work done
+     */
+    int poll(long nowNs) {
+        int work = commands.size() == 0 ? 0 : commands.read(applyCommand, COMMAND_LIMIT);
+        if (wheel.timerCount() > 0) {
+            work += wheel.poll(nowNs, this, EXPIRY_LIMIT);
+        }
+        return work;
+    }
+
+    boolean isEmpty() {
+        return wheel.timerCount() == 0 && commands.size() == 0;
+    }
+
+    private void apply(int type, MutableDirectBuffer buffer, int index, int length) {
+        long id = buffer.getLong(index + ID_OFFSET);
+        int slot = (int) id;
+        if (type == SCHEDULE) {
+            ids[slot] = id;
+            deadlines[slot] = buffer.getLong(index + DEADLINE_OFFSET);
+            periods[slot] = buffer.getLong(index + PERIOD_OFFSET);
+            add(slot);
+        } else if (slot >= 0 && slot < ids.length && ids[slot] == id && wheelIds[slot] != NO_TIMER) {
+            wheel.cancelTimer(wheelIds[slot]);
+            slots.remove(wheelIds[slot]);
+            release.accept(free(slot));
+        }
+    }
+
+    private void add(int slot) {
+        long wheelId = wheel.scheduleTimer(deadlines[slot]);
+        wheelIds[slot] = wheelId;
+        slots.put(wheelId, slot);
+    }
+
+    // the message is taken out first, so a handler can schedule it again
+    private ReusableMessage free(int slot) {
+        ReusableMessage message = messages[slot];
+        messages[slot] = null;
+        ids[slot] = 0;
+        wheelIds[slot] = NO_TIMER;
+        free.offer(slotKeys[slot]);
+        return message;
+    }
+
+    @Override
+    public boolean onTimerExpiry(TimeUnit timeUnit, long now, long timerId) {
+        long slot = slots.remove(timerId);
+        if (slot == NO_TIMER) {
+            return true;
+        }
+        int expired = (int) slot;
+        if (periods[expired] > 0) {
+            deadlines[expired] += periods[expired];   // fixed rate, late expiries do not shift the schedule
+            add(expired);
+            fireRetained.accept(messages[expired]);
+        } else {
+            fire.accept(free(expired));
+        }
+        return true;
+    }
+}
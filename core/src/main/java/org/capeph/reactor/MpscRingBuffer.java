@@ -0,0 +1,36 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Ring buffer that can be fed by any number of producer threads and is read by one consumer thread.
+ * Producers claim a slot by a CAS on the tail and then publish the element with an ordered store,
+ * the consumer treats a claimed but not yet written slot as empty.
+ *
+ * @param <T> type of element
+ */
+public class MpscRingBuffer<T> extends PaddedRingBuffer<T> {
+
+    public MpscRingBuffer(int sizeFactor) {
+        super(sizeFactor);
+    }
+
+    @Override
+    public boolean offer(T element) {
+        long limit = (long) HEAD_CACHE.getAcquire(this);
+        long current;
+        do {
+            current = (long) TAIL.getVolatile(this);
+            if (current >= limit) {
+                limit = (long) HEAD.getVolatile(this) + capacity;
+                if (current >= limit) {
+                    return false;
+                }
+                HEAD_CACHE.setRelease(this, limit);
+            }
+        } while (!TAIL.compareAndSet(this, current, current + 1));
+        ELEMENTS.setRelease(store, (int) current & mask, element);
+        return true;
+    }
+}
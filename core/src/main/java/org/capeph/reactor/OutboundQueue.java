@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Publication;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.ControlledMessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encoded messages waiting to be sent to one target.
+ * Any thread can queue a message without waiting, the sender thread moves them to the publication.
+ * A message stays in the queue while the publication is back pressured or not connected.
+ */
+final class OutboundQueue {
+
+    private static final int MESSAGE_TYPE = 1;
+    private static final int DRAIN_LIMIT = 64;
+
+    private final Logger log = LogManager.getLogger(OutboundQueue.class);
+    private final Publication publication;
+    private final ManyToOneRingBuffer queue;
+    private final SendCounters counters;
+    private final ControlledMessageHandler sender = this::send;
+
+    /**
+     * @param publication publication of the target
+     * @param capacity size of the queue in bytes, a power of two
+     * @param counters counters of the reactor
+     */
+    OutboundQueue(Publication publication, int capacity, SendCounters counters) {
+        this.publication = publication;
+        this.counters = counters;
+        queue = new ManyToOneRingBuffer(new UnsafeBuffer(
+                ByteBuffer.allocateDirect(capacity + RingBufferDescriptor.TRAILER_LENGTH)));
+    }
+
+    /**
+     * @return the largest encoded message the queue can take
+     */
+    int maxMessageLength() {
+        return queue.maxMsgLength();
+    }
+
+    /**
+     * encode a message into the queue
+     * @return OK if queued, BACK_PRESSURED if the queue is full
+     */
+    SendResult offer(ICodec codec, ReusableMessage message, int encodedLength, long correlationId, int replyTo) {
+        int index = queue.tryClaim(MESSAGE_TYPE, encodedLength);
+        if (index <= 0) {
+            return SendResult.BACK_PRESSURED;
+        }
+        try {
+            MutableDirectBuffer buffer = queue.buffer();
+            codec.encode(message, buffer, index);
+            Header.writeCorrelation(buffer, index, correlationId, replyTo);
+            queue.commit(index);
+            return SendResult.OK;
+        } catch (RuntimeException e) {
+            queue.abort(index);
+            counters.sendFailures.increment();
+            log.error("Queueing message threw exception ", e);
+            return SendResult.FAILED;
+        }
+    }
+
+    /**
+     * move queued messages to the publication, called by the sender thread
+     * @return number of messages sent
+     */
+    int drain() {
+        return queue.controlledRead(sender, DRAIN_LIMIT);
+    }
+
+    private ControlledMessageHandler.Action send(int msgTypeId, MutableDirectBuffer buffer, int index, int length) {
+        long result = publication.offer(buffer, index, length);
+        if (result > 0L) {
+            counters.sentMessages.increment();
+            counters.sentBytes.getAndAdd(length);
+            return ControlledMessageHandler.Action.COMMIT;
+        }
+        if (result == Publication.CLOSED || result == Publication.MAX_POSITION_EXCEEDED) {
+            counters.sendFailures.increment();
+            log.error("Dropping queued message, publication returned {}", result);
+            return ControlledMessageHandler.Action.CONTINUE;
+        }
+        counters.claimRetries.increment();
+        return ControlledMessageHandler.Action.ABORT;   // keep it and try again on the next duty cycle
+    }
+}
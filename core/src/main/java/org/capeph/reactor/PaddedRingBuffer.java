@@ -0,0 +1,193 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.capeph.config.Config;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock free ring buffer with a single consumer.
+ * The head and tail sequences are padded to keep them on separate cache lines, and all
+ * stores that publish elements or free slots are ordered (release) stores.
+ * The producer side is implemented by the subclasses, see {@link SpscRingBuffer} and {@link MpscRingBuffer}
+ *
+ * @param <T> type of element
+ */
+public abstract class PaddedRingBuffer<T> extends RingBufferFields {
+
+    /**
+     * the threads that will offer elements to a ring buffer
+     */
+    public enum ProducerMode {
+        SINGLE, MULTI;
+
+        /**
+         * @return the producer mode from the config, MULTI if it is not set
+         */
+        static ProducerMode configured() {
+            String configured = Config.dispatcherProducers.get();
+            return configured == null || configured.isBlank() ? MULTI : valueOf(configured.trim().toUpperCase());
+        }
+    }
+
+    protected static final VarHandle ELEMENTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    protected final int capacity;
+    protected final int mask;
+    protected final Object[] store;
+
+    /**
+     * @param sizeFactor  the capacity of the buffer is 2^sizeFactor
+     */
+    protected PaddedRingBuffer(int sizeFactor) {
+        this.capacity = 1 << sizeFactor;
+        this.mask = capacity - 1;
+        this.store = new Object[capacity];
+    }
+
+    /**
+     * create a ring buffer that is safe for the given producers
+     * @param mode  single or multiple producer threads
+     * @param sizeFactor the capacity of the buffer is 2^sizeFactor
+     * @return a new ring buffer
+     */
+    public static <T> PaddedRingBuffer<T> create(ProducerMode mode, int sizeFactor) {
+        return switch (mode) {
+            case SINGLE -> new SpscRingBuffer<>(sizeFactor);
+            case MULTI -> new MpscRingBuffer<>(sizeFactor);
+        };
+    }
+
+    /**
+     * add an element to the buffer
+     * @param element element to add, not null
+     * @return false if the buffer is full
+     */
+    public abstract boolean offer(T element);
+
+    /**
+     * take the next element from the buffer, may only be called from the consumer thread
+     * @return the next element or null if there is none available
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long current = head;
+        int idx = (int) current & mask;
+        Object element = ELEMENTS.getAcquire(store, idx);
+        if (element == null) {
+            return null;   // empty, or a producer has claimed the slot but not yet written it
+        }
+        ELEMENTS.setOpaque(store, idx, null);
+        HEAD.setRelease(this, current + 1);
+        return (T) element;
+    }
+
+    /**
+     * process up to limit elements, may only be called from the consumer thread.
+     * The tail is read once for the whole batch and the head is published once after the batch,
+     * so producers will not see the freed slots until the batch is done.
+     * @param handler called for each element
+     * @param limit max number of elements to process
+     * @return number of elements processed
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<T> handler, int limit) {
+        long current = head;
+        long available = tailCache - current;
+        if (available <= 0) {
+            tailCache = (long) TAIL.getAcquire(this);
+            available = tailCache - current;
+            if (available <= 0) {
+                return 0;
+            }
+        }
+        int count = (int) Math.min(available, limit);
+        int processed = 0;
+        try {
+            while (processed < count) {
+                int idx = (int) (current + processed) & mask;
+                Object element = ELEMENTS.getAcquire(store, idx);
+                if (element == null) {
+                    break;   // claimed by a producer but not yet written
+                }
+                ELEMENTS.setOpaque(store, idx, null);
+                processed++;   // count it before handling so a failing element is not read again
+                handler.accept((T) element);
+            }
+        } finally {
+            HEAD.setRelease(this, current + processed);
+        }
+        return processed;
+    }
+
+    public int size() {
+        long currentHead = (long) HEAD.getVolatile(this);
+        long currentTail = (long) TAIL.getVolatile(this);
+        return (int) Math.max(0, Math.min(capacity, currentTail - currentHead));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() >= capacity;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
+
+// Cache line padding. The fields are split over a class hierarchy since the JVM
+// does not reorder fields across classes.
+
+abstract class RingBufferHeadPad {
+    byte p000, p001, p002, p003, p004, p005, p006, p007, p008, p009, p010, p011, p012, p013, p014, p015;
+    byte p016, p017, p018, p019, p020, p021, p022, p023, p024, p025, p026, p027, p028, p029, p030, p031;
+    byte p032, p033, p034, p035, p036, p037, p038, p039, p040, p041, p042, p043, p044, p045, p046, p047;
+    byte p048, p049, p050, p051, p052, p053, p054, p055, p056, p057, p058, p059, p060, p061, p062, p063;
+}
+
+abstract class RingBufferHead extends RingBufferHeadPad {
+    protected volatile long head;   // next slot to read, only written by the consumer
+    protected long tailCache;       // consumer local copy of the tail
+}
+
+abstract class RingBufferTailPad extends RingBufferHead {
+    byte p100, p101, p102, p103, p104, p105, p106, p107, p108, p109, p110, p111, p112, p113, p114, p115;
+    byte p116, p117, p118, p119, p120, p121, p122, p123, p124, p125, p126, p127, p128, p129, p130, p131;
+    byte p132, p133, p134, p135, p136, p137, p138, p139, p140, p141, p142, p143, p144, p145, p146, p147;
+    byte p148, p149, p150, p151, p152, p153, p154, p155, p156, p157, p158, p159, p160, p161, p162, p163;
+}
+
+abstract class RingBufferTail extends RingBufferTailPad {
+    protected volatile long tail;        // next slot to write
+    protected volatile long headCache;   // producer copy of head + capacity
+}
+
+abstract class RingBufferFields extends RingBufferTail {
+    byte p200, p201, p202, p203, p204, p205, p206, p207, p208, p209, p210, p211, p212, p213, p214, p215;
+    byte p216, p217, p218, p219, p220, p221, p222, p223, p224, p225, p226, p227, p228, p229, p230, p231;
+    byte p232, p233, p234, p235, p236, p237, p238, p239, p240, p241, p242, p243, p244, p245, p246, p247;
+    byte p248, p249, p250, p251, p252, p253, p254, p255, p256, p257, p258, p259, p260, p261, p262, p263;
+
+    protected static final VarHandle HEAD;
+    protected static final VarHandle TAIL;
+    protected static final VarHandle HEAD_CACHE;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(RingBufferHead.class, "head", long.class);
+            TAIL = lookup.findVarHandle(RingBufferTail.class, "tail", long.class);
+            HEAD_CACHE = lookup.findVarHandle(RingBufferTail.class, "headCache", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
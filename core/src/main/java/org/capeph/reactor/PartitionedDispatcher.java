@@ -0,0 +1,180 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.concurrent.IdleStrategy;
+import org.capeph.pool.MessagePool;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Dispatcher that spreads the messages over several dispatcher threads, each with its own ring buffer.
+ * Messages are routed on their partition key, so all messages with the same key are handled in order
+ * by the same thread while different keys can be handled in parallel. The key is made by the codec from
+ * the field annotated with PartitionKey, or taken from {@link ReusableMessage#partitionKey()}.
+ * A handler can only be registered for messages that have a key, since without one they would all
+ * end up on one partition. Handlers are registered on all the partitions.
+ */
+public class PartitionedDispatcher implements MessageDispatcher {
+
+    private final Dispatcher[] partitions;
+    private final ICodec codec;   // null when the messages have their own partitionKey
+
+    /**
+     * @param idleStrategies provides the idle strategy for each dispatcher thread
+     * @param pool pool that handled messages are returned to
+     * @param partitionCount number of dispatcher threads
+     * @param producers whether one or several threads will call accept
+     */
+    public PartitionedDispatcher(Supplier<IdleStrategy> idleStrategies, MessagePool pool, int partitionCount, ProducerMode producers) {
+        this(idleStrategies, pool, partitionCount, producers, i -> AgentPlacement.unpinned("dispatcher-" + i), null);
+    }
+
+    /**
+     * @param idleStrategies provides the idle strategy for each dispatcher thread
+     * @param pool pool that handled messages are returned to
+     * @param partitionCount number of dispatcher threads
+     * @param producers whether one or several threads will call accept
+     * @param placements thread name and cpu for each partition
+     * @param codec makes the partition keys from the annotated fields, or null if the messages have their own
+     */
+    public PartitionedDispatcher(Supplier<IdleStrategy> idleStrategies, MessagePool pool, int partitionCount,
+                                 ProducerMode producers, IntFunction<AgentPlacement> placements, ICodec codec) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("A dispatcher needs at least one partition");
+        }
+        this.codec = codec;
+        partitions = new Dispatcher[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new Dispatcher(idleStrategies.get(), pool, false, producers, placements.apply(i));
+        }
+    }
+
+    @Override
+    public void addMessageHandler(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                                  HandlerExecution execution) {
+        requireKey(messageClass);
+        for (Dispatcher partition : partitions) {
+            partition.addMessageHandler(messageClass, messageConsumer, execution);
+        }
+    }
+
+    @Override
+    public void addTypedHandler(TypedDispatch dispatch, HandlerExecution execution) {
+        for (Class<? extends ReusableMessage> messageClass : dispatch.messageTypes()) {
+            requireKey(messageClass);
+        }
+        for (Dispatcher partition : partitions) {
+            partition.addTypedHandler(dispatch, execution);
+        }
+    }
+
+    private void requireKey(Class<? extends ReusableMessage> messageClass) {
+        if (codec != null && codec.hasPartitionKey(messageClass)) {
+            return;
+        }
+        try {
+            if (messageClass.getMethod("partitionKey").getDeclaringClass() != ReusableMessage.class) {
+                return;
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("No partitionKey method in " + messageClass, e);
+        }
+        throw new IllegalArgumentException("No partition key for " + messageClass.getName()
+                + ", annotate a field with @PartitionKey or override partitionKey()");
+    }
+
+    private int keyOf(ReusableMessage message) {
+        return codec == null ? message.partitionKey() : codec.partitionKey(message);
+    }
+
+    @Override
+    public void accept(ReusableMessage message) {
+        partitions[partitionFor(keyOf(message))].accept(message);
+    }
+
+    /**
+     * the timer runs on the partition of the message, the partition is kept in the low bits of the id
+     */
+    @Override
+    public long schedule(ReusableMessage message, long delayNs, long periodNs) {
+        int partition = partitionFor(keyOf(message));
+        return partitions[partition].schedule(message, delayNs, periodNs) * partitions.length + partition;
+    }
+
+    @Override
+    public void cancelTimer(long timerId) {
+        partitions[(int) (timerId % partitions.length)].cancelTimer(timerId / partitions.length);
+    }
+
+    @Override
+    public void routeReplies(PendingReplies replies) {
+        for (Dispatcher partition : partitions) {
+            partition.routeReplies(replies);
+        }
+    }
+
+    /**
+     * a fence is queued on every partition, and the action runs on the partition that reaches its fence last
+     */
+    @Override
+    public boolean fence(Runnable action) {
+        AtomicInteger remaining = new AtomicInteger(partitions.length);
+        Runnable arrived = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                action.run();
+            }
+        };
+        for (Dispatcher partition : partitions) {
+            if (!partition.fence(arrived)) {
+                return false;   // the fences already queued never all arrive
+            }
+        }
+        return true;
+    }
+
+    int partitionFor(int key) {
+        int hash = key * 0x9E3779B9;  // spread sequential keys
+        return Integer.remainderUnsigned(hash ^ (hash >>> 16), partitions.length);
+    }
+
+    public int partitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return the sum of the counters of all partitions
+     */
+    @Override
+    public BackpressureCounters counters() {
+        BackpressureCounters[] all = new BackpressureCounters[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            all[i] = partitions[i].counters();
+        }
+        return BackpressureCounters.sum(all);
+    }
+
+    /**
+     * @return room in the fullest partition, since any message may be routed there
+     */
+    @Override
+    public int remainingCapacity() {
+        int remaining = Integer.MAX_VALUE;
+        for (Dispatcher partition : partitions) {
+            remaining = Math.min(remaining, partition.remainingCapacity());
+        }
+        return remaining;
+    }
+
+    @Override
+    public void stop() {
+        for (Dispatcher partition : partitions) {
+            partition.stop();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outstanding requests of a reactor, waiting for their replies.
+ * The requests are kept in a fixed table of reused slots indexed by the low bits of the correlation id,
+ * so registering a request and routing its reply allocate nothing. A slot is owned by whoever
+ * moves its id with a compare and set, which makes replies and timeouts safe to handle from
+ * several dispatcher threads.
+ */
+public final class PendingReplies {
+
+    private static final long FREE = 0;
+    private static final long BUSY = -1;   // being filled in or completed
+    private static final long SCAN_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final VarHandle ID;
+
+    static {
+        try {
+            ID = MethodHandles.lookup().findVarHandle(Pending.class, "correlationId", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class Pending {
+        private volatile long correlationId = FREE;
+        private ReplyHandler handler;
+        private long deadlineNs;
+    }
+
+    private final Pending[] slots;
+    private final int mask;
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private volatile long nextScanNs;
+
+    /**
+     * @param sizeFactor at most 2^sizeFactor requests can be outstanding
+     */
+    PendingReplies(int sizeFactor) {
+        slots = new Pending[1 << sizeFactor];
+        mask = slots.length - 1;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Pending();
+        }
+    }
+
+    /**
+     * @param handler continuation for the reply
+     * @param timeoutNs time to wait for the reply
+     * @return the correlation id of the request
+     */
+    long register(ReplyHandler handler, long timeoutNs) {
+        for (int attempt = 0; attempt < slots.length; attempt++) {
+            long id = nextId.getAndIncrement();
+            Pending slot = slots[(int) id & mask];
+            if (ID.compareAndSet(slot, FREE, BUSY)) {
+                slot.handler = handler;
+                slot.deadlineNs = System.nanoTime() + timeoutNs;
+                outstanding.incrementAndGet();
+                ID.setRelease(slot, id);
+                return id;
+            }
+        }
+        throw new IllegalStateException("Too many outstanding requests");
+    }
+
+    /**
+     * forget a request without calling its handler, used when the request could not be sent
+     * @param correlationId id of the request
+     */
+    void cancel(long correlationId) {
+        take(slots[(int) correlationId & mask], correlationId);
+    }
+
+    /**
+     * call the continuation of a request
+     * @param correlationId id of the request
+     * @param reply the reply
+     * @return false if the request has already timed out or is unknown
+     */
+    boolean complete(long correlationId, ReusableMessage reply) {
+        Pending slot = slots[(int) correlationId & mask];
+        ReplyHandler handler = take(slot, correlationId);
+        if (handler == null) {
+            return false;
+        }
+        handler.onReply(correlationId, reply);
+        return true;
+    }
+
+    /**
+     * time out expired requests, the table is scanned at most once per millisecond
+     * @param nowNs current time from System.nanoTime
+     * @return number of requests timed out
+     */
+    int pollTimeouts(long nowNs) {
+        if (outstanding.get() == 0 || nowNs - nextScanNs < 0) {
+            return 0;
+        }
+        nextScanNs = nowNs + SCAN_INTERVAL_NS;
+        int expired = 0;
+        for (Pending slot : slots) {
+            long id = (long) ID.getAcquire(slot);
+            if (id > 0 && nowNs - slot.deadlineNs > 0) {
+                ReplyHandler handler = take(slot, id);
+                if (handler != null) {
+                    expired++;
+                    handler.onTimeout(id);
+                }
+            }
+        }
+        return expired;
+    }
+
+    boolean hasOutstanding() {
+        return outstanding.get() > 0;
+    }
+
+    private ReplyHandler take(Pending slot, long correlationId) {
+        if (correlationId <= 0 || !ID.compareAndSet(slot, correlationId, BUSY)) {
+            return null;
+        }
+        ReplyHandler handler = slot.handler;
+        slot.handler = null;
+        outstanding.decrementAndGet();
+        ID.setRelease(slot, FREE);
+        return handler;
+    }
+}
@@ -5,37 +5,79 @@ package org.capeph.reactor;
 
 
 import io.aeron.Aeron;
+import io.aeron.ChannelUri;
+import io.aeron.CommonContext;
 import io.aeron.Publication;
 import io.aeron.Subscription;
 import io.aeron.driver.MediaDriver;
 import io.aeron.logbuffer.BufferClaim;
+import org.agrona.DirectBuffer;
+import org.agrona.ExpandableDirectByteBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.Agent;
 import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.CompositeAgent;
 import org.agrona.concurrent.IdleStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.capeph.config.Config;
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 import org.capeph.messages.codec.Codec;
 import org.capeph.pool.MessagePool;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class Reactor {
 
+    private static final String IPC_CHANNEL = "aeron:ipc";
+    private static final String DEFAULT_THREAD_PREFIX = "reactor";
+    private static final int DEFAULT_SEND_QUEUE = 16;   // 2^16 bytes, the default in the config
+
     private final Logger log = LogManager.getLogger(Reactor.class);
     MediaDriver driver;
     Aeron aeron;
-    private final Map<String, Publication> publications = new HashMap<>();
+    private final Map<String, TargetHandle> targets = new ConcurrentHashMap<>();
+    private final Map<String, TargetHandle> groups = new ConcurrentHashMap<>();
+    private final Map<Class<?>, String> messageLanes = new ConcurrentHashMap<>();
+    private final Executor resolver = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("resolver").factory());
     private final MessagePool messagePool;
-    private final Dispatcher dispatcher;
+    private final MessageDispatcher dispatcher;
+    private final InlineHandlers inlineHandlers = new InlineHandlers();
     private final Consumer<String> logConsumer = (s) -> log.info("Media Driver check: {}", s);
     private final IdleStrategy reactorIdleStrategy;
+    private final Supplier<IdleStrategy> dispatcherIdleStrategies;
     private final ICodec codec;
     private final Registrar registrar;
+    private final int streamId;
+    private final String host;
+    private final ReactorInfo self;
+    private final ReactorAgent receiver;
+    private final boolean acceptsLocal;
+    private final String threadName;
+    private final long sendTimeoutNs;
+    private SenderAgent sender;   // started when the first message is queued
+    private final PendingReplies pendingReplies = new PendingReplies(Config.pendingRequests.get());
+    private final ReplyPublications replyPublications;
+    private final ThreadLocal<BufferClaim> bufferClaims = ThreadLocal.withInitial(BufferClaim::new);
+    private final ThreadLocal<ExpandableDirectByteBuffer> largeBuffers = ThreadLocal.withInitial(ExpandableDirectByteBuffer::new);
+    private final ThreadLocal<MessageBatch> largeBatches;
+    private final SendCounters sendCounters;
 
     /**
      * @param name      name of the reactor. used to look up
@@ -43,40 +85,222 @@ public class Reactor {
      * @param overrideCodec optional codec class
      */
     public Reactor(String name, String endpoint, boolean inProcess, ICodec overrideCodec)  {
+        this(name, endpoint, inProcess, overrideCodec, parseLanes(Config.lanes.get()));
+    }
+
+    /**
+     * @param name      name of the reactor. used to look up
+     * @param endpoint  the local endpoint
+     * @param overrideCodec optional codec class
+     * @param lanes     weight of each extra inbound lane, by lane name
+     */
+    public Reactor(String name, String endpoint, boolean inProcess, ICodec overrideCodec, Map<String, Integer> lanes)  {
         registrar = new Registrar();
         if (!verifyMediaDriver()) {
             throw new IllegalStateException("Could not get or start a media driver");
         }
-        log.info("Media driver is running at {}", MediaDriver.Context.getAeronDirectoryName());
+        log.info("Media driver is running at {}", DriverProfile.directory());
 
         this.codec = overrideCodec == null ? new Codec() :  overrideCodec;
+        largeBatches = ThreadLocal.withInitial(() -> new MessageBatch(codec));
         messagePool = new MessagePool(m -> codec.clear((ReusableMessage)m));
-        aeron = Aeron.connect();
+        aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(DriverProfile.directory()));
+        sendCounters = new SendCounters(aeron, name);
 
-        ReactorInfo info = registrar.register(name, endpoint);
-        Subscription subscription = aeron.addSubscription(buildUri(endpoint), info.getStreamid());
+        self = registrar.register(name, endpoint, machineName(), driverIdentity(), lanes.keySet());
+        streamId = self.getStreamid();
+        host = endpoint.substring(0, endpoint.lastIndexOf(':'));
+        InboundLog inboundLog = null;
+        Subscription subscription;
+        if (Config.archiveEnabled.get()) {
+            // the reactor reads the recordings of its channels instead of the channels
+            List<String> channels = Config.ipc.get() ? List.of(buildUri(endpoint), IPC_CHANNEL) : List.of(buildUri(endpoint));
+            inboundLog = new InboundLog(aeron, name, streamId, channels);
+            subscription = inboundLog.subscription();
+        }
+        else {
+            subscription = aeron.addSubscription(buildUri(endpoint), streamId);
+        }
 
         reactorIdleStrategy = aeron.context().idleStrategy();
-        // start agent  TODO: setup errorCounter
-        dispatcher = new Dispatcher(reactorIdleStrategy, messagePool, false);
+        dispatcherIdleStrategies = IdleStrategies.factory(Config.dispatcherIdleStrategy);
+        threadName = threadPrefix() + "-" + name;
+        sendTimeoutNs = TimeUnit.MILLISECONDS.toNanos(Config.sendTimeout.get());
         String description = "Reactor(" + name + "," + endpoint + ")";
-        Agent agent = new ReactorAgent(subscription, codec, messagePool, dispatcher, description);
-        final var runner = new AgentRunner(reactorIdleStrategy, this::errorHandler,null, agent);
-        AgentRunner.startOnThread(runner);
+        replyPublications = new ReplyPublications(this::connectReply, resolver);
+        // start agent  TODO: setup errorCounter
+        boolean composite = Config.compositeAgent.get() && Config.dispatcherPartitions.get() <= 1 && !encodedHandoff();
+        if (composite) {
+            // receive and dispatch on the same thread. messages are handled as they are received, a ring
+            // would only be drained by the thread waiting for room in it
+            Dispatcher composed = new Dispatcher(null, messagePool, true, ProducerMode.SINGLE, null);
+            dispatcher = composed;
+            receiver = new ReactorAgent(subscription, codec, messagePool, dispatcher, inlineHandlers,
+                    replyPublications::prepare, inboundLog, description);
+            startAgent(new CompositeAgent(receiver, composed), new AgentPlacement(threadName, Config.receiveCpu.get()));
+        }
+        else {
+            if (Config.compositeAgent.get()) {
+                log.warn("Composite agent can not be used with partitioned dispatchers or encoded hand-off, starting separate threads");
+            }
+            dispatcher = createDispatcher(threadName);
+            receiver = new ReactorAgent(subscription, codec, messagePool, dispatcher, inlineHandlers,
+                    replyPublications::prepare, inboundLog, description);
+            startAgent(receiver, new AgentPlacement(threadName + "-receive", Config.receiveCpu.get()));
+        }
+        if (Config.ipc.get() && inboundLog == null) {
+            // reactors on the same media driver send over shared memory
+            receiver.addSubscription(aeron.addSubscription(IPC_CHANNEL, streamId));
+        }
+        if (inboundLog != null) {
+            AgentPlacement placement = AgentPlacement.unpinned(threadName + "-archive");
+            log.info("Starting {} on {}", inboundLog.roleName(), placement);
+            placement.start(new AgentRunner(IdleStrategies.create(Config.senderIdleStrategy), this::errorHandler,
+                    null, inboundLog));
+        }
+        for (Map.Entry<String, Integer> lane : lanes.entrySet()) {
+            int laneStream = self.getLanes().get(lane.getKey());
+            log.info("Adding lane {} on stream {} with weight {}", lane.getKey(), laneStream, lane.getValue());
+            receiver.addSubscription(aeron.addSubscription(buildUri(endpoint), laneStream), lane.getValue());
+            if (Config.ipc.get()) {
+                receiver.addSubscription(aeron.addSubscription(IPC_CHANNEL, laneStream), lane.getValue());
+            }
+        }
+        dispatcher.routeReplies(pendingReplies);
+        // other threads can only hand messages to a dispatcher that takes several producers and has its own thread,
+        // and messages handed over directly would not be recorded
+        acceptsLocal = Config.localDelivery.get() && !encodedHandoff() && producerMode() == ProducerMode.MULTI
+                && !composite && inboundLog == null;
+        LocalReactors.register(name, this);
+    }
+
+    /**
+     * @param description lanes as name:weight,name:weight, a lane without a weight gets weight 1
+     * @return the weight of each lane, by name
+     */
+    static Map<String, Integer> parseLanes(String description) {
+        Map<String, Integer> lanes = new LinkedHashMap<>();
+        if (description == null || description.isBlank()) {
+            return lanes;
+        }
+        for (String lane : description.split(",")) {
+            String[] parts = lane.trim().split(":");
+            try {
+                int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                if (parts[0].isBlank() || parts.length > 2 || weight < 1) {
+                    throw new IllegalArgumentException("Bad lane " + lane + " in " + description);
+                }
+                lanes.put(parts[0].trim(), weight);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad lane weight in " + description, e);
+            }
+        }
+        return lanes;
+    }
+
+    private static String machineName() {
+        try {
+            return InetAddress.getLocalHost().getCanonicalHostName();
+        } catch (UnknownHostException e) {
+            return null;   // never treated as co-located
+        }
+    }
+
+    private String driverIdentity() {
+        try {
+            return new File(aeron.context().aeronDirectoryName()).getCanonicalPath();
+        } catch (IOException e) {
+            return aeron.context().aeronDirectoryName();
+        }
+    }
+
+    private void startAgent(Agent agent, AgentPlacement placement) {
+        log.info("Starting {} on {}", agent.roleName(), placement);
+        IdleStrategy idleStrategy = IdleStrategies.create(Config.receiveIdleStrategy);
+        final var runner = new AgentRunner(idleStrategy, this::errorHandler,null, agent);
+        placement.start(runner);
     }
 
     private void errorHandler(Throwable throwable) {
         log.error("Caught exception: ", throwable);
     }
 
+    private ProducerMode producerMode() {
+        return ProducerMode.configured();
+    }
+
+    private static String threadPrefix() {
+        String prefix = Config.threadPrefix.get();
+        return prefix == null || prefix.isBlank() ? DEFAULT_THREAD_PREFIX : prefix.trim();
+    }
+
+    private boolean encodedHandoff() {
+        String mode = Config.handoffMode.get();
+        return mode != null && mode.trim().equalsIgnoreCase("encoded");
+    }
+
+    private MessageDispatcher createDispatcher(String threadName) {
+        String cpus = Config.dispatcherCpus.get();
+        int partitions = Config.dispatcherPartitions.get();
+        if (encodedHandoff()) {
+            if (partitions > 1) {
+                log.warn("Encoded hand-off uses a single dispatcher thread, ignoring {} partitions", partitions);
+            }
+            AgentPlacement placement = new AgentPlacement(threadName + "-dispatcher", AgentPlacement.cpuAt(cpus, 0));
+            return new FrameDispatcher(dispatcherIdleStrategies.get(), codec, messagePool, placement);
+        }
+        if (partitions > 1) {
+            log.info("Starting {} dispatcher partitions", partitions);
+            return new PartitionedDispatcher(dispatcherIdleStrategies, messagePool, partitions, producerMode(),
+                    i -> new AgentPlacement(threadName + "-dispatcher-" + i, AgentPlacement.cpuAt(cpus, i)), codec);
+        }
+        AgentPlacement placement = new AgentPlacement(threadName + "-dispatcher", AgentPlacement.cpuAt(cpus, 0));
+        return new Dispatcher(dispatcherIdleStrategies.get(), messagePool, false, producerMode(), placement);
+    }
+
     private String buildUri(String endpoint) {
         return "aeron:udp?endpoint=" + endpoint;
     }
 
+    // ipc when the target uses the same media driver, the udp endpoint of the target otherwise
+    private String channelFor(ReactorInfo target) {
+        if (Config.ipc.get() && self.sharesDriverWith(target)) {
+            return publicationUri(IPC_CHANNEL);
+        }
+        return publicationUri(buildUri(target.getEndpoint()));
+    }
+
+    // the term length limits the message size to a term length / 8, larger messages fail to send
+    private String publicationUri(String channel) {
+        int termLength = Config.termLength.get();
+        if (termLength <= 0) {
+            return channel;
+        }
+        ChannelUri uri = ChannelUri.parse(channel);   // aeron:ipc has no parameters to append to
+        uri.put(CommonContext.TERM_LENGTH_PARAM_NAME, Integer.toString(termLength));
+        return uri.toString();
+    }
+
+    // a multicast group uses the same channel for all, mdc members connect to the control address of the sender
+    private String groupPublicationUri(GroupInfo group) {
+        if (GroupInfo.MDC.equals(group.getMode())) {
+            return publicationUri("aeron:udp?control=" + group.getEndpoint() + "|control-mode=dynamic");
+        }
+        return publicationUri(buildUri(group.getEndpoint()));
+    }
+
+    private String groupSubscriptionUri(GroupInfo group) {
+        if (GroupInfo.MDC.equals(group.getMode())) {
+            // port 0 lets the media driver pick a free port for each member
+            return "aeron:udp?endpoint=" + host + ":0|control=" + group.getEndpoint() + "|control-mode=dynamic";
+        }
+        return buildUri(group.getEndpoint());
+    }
+
     public boolean verifyMediaDriver() {
         // get the directory name
         long timeout = MediaDriver.Context.DRIVER_TIMEOUT_MS;
-        String aeronDirName = MediaDriver.Context.getAeronDirectoryName();
+        String aeronDirName = DriverProfile.directory();
         File aeronDir = new File(aeronDirName);
         log.info("Scanning for Media Driver at {}", aeronDirName);
         if (MediaDriver.Context.isDriverActive(aeronDir, timeout, logConsumer)) {
@@ -87,43 +311,460 @@ public class Reactor {
             log.warn("Media Driver instance found - replacing with new");
             driver.close();
         }
-        // launch media driver with default context  // TODO: customize context
-        driver = MediaDriver.launch();
+        driver = MediaDriver.launch(DriverProfile.context());
         return MediaDriver.Context.isDriverActive(aeronDir, timeout, logConsumer);
     }
 
-    private Publication getPublication(String targetReactor) {
-        return publications.computeIfAbsent(targetReactor, target -> {
-            ReactorInfo info = registrar.lookupReactor(target);
-            String channel = buildUri(info.getEndpoint());
-            return aeron.addExclusivePublication(channel, info.getStreamid());
-        });
+    /**
+     * look up a reactor and bind a handle to it, the handle is created once and then reused.
+     * Blocks on the lookup service the first time a name is resolved.
+     * @param targetReactor name of the reactor
+     * @return handle for sending to the reactor
+     */
+    public TargetHandle resolve(String targetReactor) {
+        TargetHandle handle = targets.get(targetReactor);
+        if (handle == null) {
+            handle = targets.computeIfAbsent(targetReactor, target -> {
+                ReactorInfo info = registrar.lookupReactor(target);
+                String channel = channelFor(info);
+                Map<String, Publication> lanes = new HashMap<>();
+                if (info.getLanes() != null) {
+                    info.getLanes().forEach((lane, laneStream) ->
+                            lanes.put(lane, aeron.addExclusivePublication(channel, laneStream)));
+                }
+                return new TargetHandle(target, info.getStreamid(), aeron.addExclusivePublication(channel, info.getStreamid()),
+                        Map.copyOf(lanes), LocalReactors.get(target));
+            });
+        }
+        return handle;
+    }
+
+    /**
+     * resolve a reactor on a virtual thread, so the caller never blocks on the lookup service
+     * @param targetReactor name of the reactor
+     * @return completes with the handle, or exceptionally if the lookup fails
+     */
+    public CompletableFuture<TargetHandle> resolveAsync(String targetReactor) {
+        TargetHandle handle = targets.get(targetReactor);
+        if (handle != null) {
+            return CompletableFuture.completedFuture(handle);
+        }
+        return CompletableFuture.supplyAsync(() -> resolve(targetReactor), resolver);
+    }
+
+    /**
+     * create a named group of reactors in the lookup service. Creating a group that already
+     * exists with the same settings does nothing.
+     * @param group name of the group
+     * @param endpoint multicast address, or the control address of the sender for multi destination cast
+     * @param multiDestination if true the sender sends to each member, for networks without multicast
+     */
+    public void createGroup(String group, String endpoint, boolean multiDestination) {
+        registrar.registerGroup(new GroupInfo(group, endpoint, 0,
+                multiDestination ? GroupInfo.MDC : GroupInfo.MULTICAST));
+    }
+
+    /**
+     * receive the messages sent to a group, they are handled like messages sent to this reactor
+     * @param group name of the group
+     */
+    public void joinGroup(String group) {
+        GroupInfo info = registrar.lookupGroup(group);
+        receiver.addSubscription(aeron.addSubscription(groupSubscriptionUri(info), info.getStreamid()));
+    }
+
+    /**
+     * look up a group and bind a handle to it. A message signalled to the handle is encoded once
+     * and the media driver delivers it to all members of the group.
+     * @param group name of the group
+     * @return handle for sending to the group
+     */
+    public TargetHandle resolveGroup(String group) {
+        TargetHandle handle = groups.get(group);
+        if (handle == null) {
+            handle = groups.computeIfAbsent(group, name -> {
+                GroupInfo info = registrar.lookupGroup(name);
+                return new TargetHandle(name, info.getStreamid(),
+                        aeron.addExclusivePublication(groupPublicationUri(info), info.getStreamid()));
+            });
+        }
+        return handle;
+    }
+
+    // replies go to the stream of the requester, looked up when the first request from it arrives
+    private Publication connectReply(int replyTo) {
+        ReactorInfo info = registrar.lookupStream(replyTo);
+        return aeron.addExclusivePublication(channelFor(info), replyTo);
     }
 
     public  boolean signal(ReusableMessage message, String targetReactor) {
+        return signal(message, resolve(targetReactor));
+    }
+
+    /**
+     * send a message to a resolved reactor
+     * @param message message to send
+     * @param target handle from resolve
+     * @return true if the message was sent
+     */
+    public boolean signal(ReusableMessage message, TargetHandle target) {
+        return trySignal(message, target) == SendResult.OK;
+    }
+
+    /**
+     * send a message to a resolved reactor, waiting at most the configured send timeout
+     * @param message message to send
+     * @param target handle from resolve
+     * @return OK if the message was sent, otherwise why it was not
+     */
+    public SendResult trySignal(ReusableMessage message, TargetHandle target) {
+        return trySignal(message, target, sendTimeoutNs, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * send a message to a resolved reactor
+     * @param message message to send
+     * @param target handle from resolve
+     * @param timeout longest time to wait for a back pressured or unconnected target, 0 waits until it is sent
+     * @param unit unit of the timeout
+     * @return OK if the message was sent, otherwise why it was not
+     */
+    public SendResult trySignal(ReusableMessage message, TargetHandle target, long timeout, TimeUnit unit) {
+        if (deliverLocal(target, message, 0L, 0)) {
+            return SendResult.OK;
+        }
+        return send(publicationFor(target, message), message, 0L, 0, unit.toNanos(timeout));
+    }
+
+    /**
+     * send all messages of a type on a lane of the targets. Targets without the lane get them on the default lane.
+     * Queued messages and batches always use the default lane.
+     * @param messageClass type of message
+     * @param lane name of the lane
+     */
+    public void sendOnLane(Class<? extends ReusableMessage> messageClass, String lane) {
+        messageLanes.put(messageClass, lane);
+    }
+
+    private Publication publicationFor(TargetHandle target, ReusableMessage message) {
+        if (messageLanes.isEmpty()) {
+            return target.publication();
+        }
+        String lane = messageLanes.get(message.getClass());
+        return lane == null ? target.publication() : target.publication(lane);
+    }
+
+    /**
+     * queue a message for the sender thread, the caller never waits for the publication.
+     * The message is encoded before the call returns, so it can be reused right away.
+     * A message larger than 2^queue / 8 bytes does not fit in the queue and is not sent.
+     * @param message message to send
+     * @param target handle from resolve
+     * @return OK if the message was queued, BACK_PRESSURED if the queue of the target is full,
+     * FAILED if the message is too large for the queue
+     */
+    public SendResult signalAsync(ReusableMessage message, TargetHandle target) {
+        OutboundQueue queue = target.queue();
+        if (queue == null) {
+            queue = outboundQueue(target);
+        }
+        int encodedLength = codec.encodedLength(message);
+        if (encodedLength > queue.maxMessageLength()) {   // sending it here could make the caller wait
+            sendCounters.oversized.increment();
+            sendCounters.sendFailures.increment();
+            log.error("Message of {} bytes is larger than the {} bytes the send queue takes, raise send.queue",
+                    encodedLength, queue.maxMessageLength());
+            return SendResult.FAILED;
+        }
+        return queue.offer(codec, message, encodedLength, 0L, 0);
+    }
+
+    private synchronized OutboundQueue outboundQueue(TargetHandle target) {
+        OutboundQueue queue = target.queue();
+        if (queue == null) {
+            if (sender == null) {
+                sender = new SenderAgent(threadName + "-sender");
+                AgentPlacement placement = AgentPlacement.unpinned(threadName + "-sender");
+                log.info("Starting {} on {}", sender.roleName(), placement);
+                placement.start(new AgentRunner(IdleStrategies.create(Config.senderIdleStrategy), this::errorHandler,
+                        null, sender));
+            }
+            int queueSize = Config.sendQueue.get() > 0 ? Config.sendQueue.get() : DEFAULT_SEND_QUEUE;
+            queue = new OutboundQueue(target.publication(), 1 << queueSize, sendCounters);
+            sender.add(queue);
+            target.queue(queue);
+        }
+        return queue;
+    }
+
+    /**
+     * @return an empty batch for messages encoded with the codec of this reactor
+     */
+    public MessageBatch newBatch() {
+        return new MessageBatch(codec);
+    }
+
+    /**
+     * send all messages of a batch as one message, the batch is cleared when it has been sent
+     * @param batch messages to send
+     * @param target handle from resolve
+     * @return true if the batch was sent
+     */
+    public boolean signal(MessageBatch batch, TargetHandle target) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            return offer(target.publication(), batch.seal(), batch.length(), batch.size(), sendTimeoutNs) == SendResult.OK;
+        } finally {
+            batch.clear();
+        }
+    }
+
+    public boolean signalBatch(List<? extends ReusableMessage> messages, String targetReactor) {
+        return signalBatch(messages, resolve(targetReactor));
+    }
+
+    /**
+     * send several messages in one claim, the messages are encoded straight into the publication.
+     * Batches larger than a frame are encoded to a buffer first and fragmented.
+     * @param messages messages to send, handled by the target in list order
+     * @param target handle from resolve
+     * @return true if the messages were sent
+     */
+    public boolean signalBatch(List<? extends ReusableMessage> messages, TargetHandle target) {
+        int count = messages.size();
+        if (count == 0) {
+            return true;
+        }
+        Publication publication = target.publication();
+        int encodedLength = MessageBatch.FIRST_MESSAGE_OFFSET;
+        for (int i = 0; i < count; i++) {
+            encodedLength += MessageBatch.encodedLength(codec, messages.get(i));
+        }
+        if (encodedLength > publication.maxPayloadLength()) {
+            MessageBatch batch = largeBatches.get();
+            for (int i = 0; i < count; i++) {
+                batch.add(messages.get(i));
+            }
+            return signal(batch, target);
+        }
+        BufferClaim bufferClaim = bufferClaims.get();
+        long result;
+        long deadline = 0;
+        while ((result = publication.tryClaim(encodedLength, bufferClaim)) <= 0L) {
+            deadline = deadline == 0 ? deadline(sendTimeoutNs) : deadline;
+            if (retry(result, deadline) != null) {
+                return false;
+            }
+        }
+        try {
+            final MutableDirectBuffer buffer = bufferClaim.buffer();
+            int offset = bufferClaim.offset();
+            MessageBatch.writeHeader(buffer, offset, count);
+            int position = offset + MessageBatch.FIRST_MESSAGE_OFFSET;
+            for (int i = 0; i < count; i++) {
+                ReusableMessage message = messages.get(i);
+                position = MessageBatch.encode(codec, buffer, position, message, codec.encodedLength(message));
+            }
+            bufferClaim.commit();
+            sendCounters.sentMessages.getAndAdd(count);
+            sendCounters.sentBytes.getAndAdd(encodedLength);
+            return true;
+        }
+        catch (Exception e) {
+            sendCounters.sendFailures.increment();
+            log.error("Sending batch threw exception ", e);
+            bufferClaim.abort();
+        }
+        return false;
+    }
+
+    /**
+     * make the reactor able to decode replies of a type it has no handler for
+     * @param replyClass type of the replies to requests sent by this reactor
+     */
+    public void expectReplies(Class<? extends CorrelatedMessage> replyClass) {
+        messagePool.addMessagePool(replyClass);
+        dispatcher.addMessageType(replyClass);
+    }
 
-        Publication publication = getPublication(targetReactor);
-        BufferClaim bufferClaim = new BufferClaim();  // can be reused!
+    /**
+     * send a request, the reply is handed to the handler on the dispatcher thread
+     * @param message the request
+     * @param targetReactor name of the reactor handling the request
+     * @param handler continuation for the reply or the timeout
+     * @param timeout time to wait for the reply
+     * @param unit unit of the timeout
+     * @return correlation id of the request, or 0 if it could not be sent
+     */
+    public long request(ReusableMessage message, String targetReactor, ReplyHandler handler, long timeout, TimeUnit unit) {
+        return request(message, resolve(targetReactor), handler, timeout, unit);
+    }
 
+    /**
+     * send a request to a resolved reactor, the reply is handed to the handler on the dispatcher thread
+     * @param message the request
+     * @param target handle from resolve
+     * @param handler continuation for the reply or the timeout
+     * @param timeout time to wait for the reply
+     * @param unit unit of the timeout
+     * @return correlation id of the request, or 0 if it could not be sent
+     */
+    public long request(ReusableMessage message, TargetHandle target, ReplyHandler handler, long timeout, TimeUnit unit) {
+        long correlationId = pendingReplies.register(handler, unit.toNanos(timeout));
+        if (!deliverLocal(target, message, correlationId, streamId)
+                && send(publicationFor(target, message), message, correlationId, streamId, sendTimeoutNs) != SendResult.OK) {
+            pendingReplies.cancel(correlationId);
+            return 0;
+        }
+        return correlationId;
+    }
+
+    /**
+     * answer a request, the reply goes straight back to the requesting reactor
+     * @param request the request being answered
+     * @param reply the reply, its type must implement CorrelatedMessage
+     * @return true if the reply was sent
+     */
+    public boolean reply(CorrelatedMessage request, CorrelatedMessage reply) {
+        if (request.getCorrelationId() == 0 || request.getReplyTo() <= 0) {
+            throw new IllegalArgumentException("Message is not a request");
+        }
+        return send(replyPublications.get(request.getReplyTo()), reply, request.getCorrelationId(), Header.REPLY,
+                sendTimeoutNs) == SendResult.OK;
+    }
+
+    private boolean deliverLocal(TargetHandle target, ReusableMessage message, long correlationId, int replyTo) {
+        Reactor local = target.local();
+        if (local != null && local.acceptLocal(message, correlationId, replyTo)) {
+            sendCounters.sentMessages.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * hand a copy of a message from a reactor in the same process to the dispatcher. The copy is
+     * taken from the pool of this reactor, so the dispatcher returns it to the pool it came from.
+     * @return false if the message has to go through the media driver instead
+     */
+    boolean acceptLocal(ReusableMessage message, long correlationId, int replyTo) {
+        if (!acceptsLocal || !inlineHandlers.isEmpty() || !messagePool.hasMessagePool(message.getClass())) {
+            return false;   // inline handlers only see encoded messages
+        }
+        ReusableMessage copy = codec.copy(message, messagePool);
+        if (copy == null) {
+            return false;
+        }
+        if (copy instanceof CorrelatedMessage correlated) {
+            correlated.setCorrelationId(correlationId);
+            correlated.setReplyTo(replyTo);
+        }
+        dispatcher.accept(copy);
+        return true;
+    }
+
+    // allocates nothing once the publication exists and the thread has its buffer claim
+    private SendResult send(Publication publication, ReusableMessage message, long correlationId, int replyTo,
+                            long timeoutNs) {
         int encodedLength = codec.encodedLength(message);
-        while (publication.tryClaim(encodedLength, bufferClaim) <= 0L) {
-            reactorIdleStrategy.idle();  // TODO: add timeout
+        if (encodedLength > publication.maxPayloadLength()) {
+            return sendLarge(publication, message, encodedLength, correlationId, replyTo, timeoutNs);
+        }
+        BufferClaim bufferClaim = bufferClaims.get();
+        long result;
+        long deadline = 0;   // only read the clock when the claim has to be retried
+        while ((result = publication.tryClaim(encodedLength, bufferClaim)) <= 0L) {
+            deadline = deadline == 0 ? deadline(timeoutNs) : deadline;
+            SendResult failed = retry(result, deadline);
+            if (failed != null) {
+                return failed;
+            }
         }
         try {
             final MutableDirectBuffer buffer = bufferClaim.buffer();
             int offset = bufferClaim.offset();           // Work with buffer directly or wrap with a flyweight
             codec.encode(message, buffer, offset);
+            Header.writeCorrelation(buffer, offset, correlationId, replyTo);
             bufferClaim.commit();
-            log.info("sent message");
-            return true;
+            sendCounters.sentMessages.increment();
+            sendCounters.sentBytes.getAndAdd(encodedLength);
+            return SendResult.OK;
         }
         catch (Exception e) {
+            sendCounters.sendFailures.increment();
             log.error("Sending message threw exception ", e);
             bufferClaim.abort();
         }
-        return false;
+        return SendResult.FAILED;
     }
 
+    private static long deadline(long timeoutNs) {
+        return timeoutNs > 0 ? System.nanoTime() + timeoutNs : Long.MAX_VALUE;
+    }
+
+    /**
+     * wait before the next attempt to claim or offer
+     * @param result what the publication returned
+     * @param deadline when to give up, Long.MAX_VALUE to never give up
+     * @return null if the send should be retried, otherwise the reason it failed
+     */
+    private SendResult retry(long result, long deadline) {
+        if (result == Publication.CLOSED || result == Publication.MAX_POSITION_EXCEEDED) {
+            sendCounters.sendFailures.increment();
+            log.error("Could not send message, publication returned {}", result);
+            return SendResult.FAILED;
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0) {
+            sendCounters.sendFailures.increment();
+            return result == Publication.NOT_CONNECTED ? SendResult.NOT_CONNECTED : SendResult.TIMED_OUT;
+        }
+        sendCounters.claimRetries.increment();
+        reactorIdleStrategy.idle();
+        return null;
+    }
+
+    // messages that do not fit in one frame are encoded to a buffer and fragmented by offer,
+    // which takes at most a term length / 8
+    private SendResult sendLarge(Publication publication, ReusableMessage message, int encodedLength,
+                                 long correlationId, int replyTo, long timeoutNs) {
+        ExpandableDirectByteBuffer buffer = largeBuffers.get();
+        try {
+            buffer.checkLimit(encodedLength);
+            codec.encode(message, buffer, 0);
+            Header.writeCorrelation(buffer, 0, correlationId, replyTo);
+        }
+        catch (Exception e) {
+            sendCounters.sendFailures.increment();
+            log.error("Sending large message threw exception ", e);
+            return SendResult.FAILED;
+        }
+        return offer(publication, buffer, encodedLength, 1, timeoutNs);
+    }
+
+    // copy encoded messages to the publication, offer fragments them if needed
+    private SendResult offer(Publication publication, DirectBuffer buffer, int length, int messages, long timeoutNs) {
+        if (length > publication.maxMessageLength()) {   // the publication would throw
+            sendCounters.oversized.increment();
+            sendCounters.sendFailures.increment();
+            log.error("Message of {} bytes is larger than the {} bytes the publication takes, raise the term length",
+                    length, publication.maxMessageLength());
+            return SendResult.FAILED;
+        }
+        long result;
+        long deadline = 0;
+        while ((result = publication.offer(buffer, 0, length)) < 0L) {
+            deadline = deadline == 0 ? deadline(timeoutNs) : deadline;
+            SendResult failed = retry(result, deadline);
+            if (failed != null) {
+                return failed;
+            }
+        }
+        sendCounters.sentMessages.getAndAdd(messages);
+        sendCounters.sentBytes.getAndAdd(length);
+        return SendResult.OK;
+    }
 
     /**
      * register a message handler for a message type
@@ -135,9 +776,98 @@ public class Reactor {
         dispatcher.addMessageHandler(messageClass, messageConsumer);
     }
 
+    /**
+     * register a message handler for a message type
+     * @param messageClass class of message
+     * @param messageConsumer handler for message type
+     * @param execution run the handlers for the type on the dispatcher thread or, if they block, on a virtual thread
+     */
+    public void react(Class<? extends ReusableMessage> messageClass, Consumer<ReusableMessage> messageConsumer,
+                      HandlerExecution execution) {
+        messagePool.addMessagePool(messageClass);
+        dispatcher.addMessageHandler(messageClass, messageConsumer, execution);
+    }
+
+    /**
+     * register a handler object through the dispatch class generated for its OnMessage methods
+     * @param dispatch generated dispatch wrapping the handler object
+     */
+    public void react(TypedDispatch dispatch) {
+        react(dispatch, HandlerExecution.DISPATCHER);
+    }
+
+    /**
+     * register a handler object through the dispatch class generated for its OnMessage methods
+     * @param dispatch generated dispatch wrapping the handler object
+     * @param execution run the handlers on the dispatcher thread or, if they block, on a virtual thread
+     */
+    public void react(TypedDispatch dispatch, HandlerExecution execution) {
+        for (Class<? extends ReusableMessage> messageClass : dispatch.messageTypes()) {
+            messagePool.addMessagePool(messageClass);
+        }
+        dispatcher.addTypedHandler(dispatch, execution);
+    }
+
+    /**
+     * handle a message type on the receiving thread, reading the fields in place with a generated flyweight.
+     * The message is not decoded and never reaches the dispatcher, so the handler must be short
+     * and must not keep the flyweight after it returns.
+     * @param flyweight generated flyweight for the message type
+     * @param handler handler for the message type
+     */
+    public <F extends MessageFlyweight> void reactInline(F flyweight, Consumer<F> handler) {
+        inlineHandlers.register(flyweight, handler);
+    }
+
     public void react(int messageId, Consumer<ReusableMessage> messageConsumer) {
         react(codec.getClassFor(messageId), messageConsumer);
     }
 
+    /**
+     * handle a message on the dispatcher thread after a delay, as if it had been received
+     * @param message message to handle, returned to the pool once handled
+     * @param delay time until the message is handled
+     * @param unit unit of the delay
+     * @return id of the timer, used to cancel it
+     */
+    public long schedule(ReusableMessage message, long delay, TimeUnit unit) {
+        return dispatcher.schedule(message, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * handle a message on the dispatcher thread at a fixed rate, as if it had been received.
+     * The same message instance is handled every period until the timer is cancelled.
+     * @param message message to handle, returned to the pool when the timer is cancelled
+     * @param initialDelay time until the message is handled the first time
+     * @param period time between the handling of the message
+     * @param unit unit of the delay and period
+     * @return id of the timer, used to cancel it
+     */
+    public long scheduleAtFixedRate(ReusableMessage message, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return dispatcher.schedule(message, unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+
+    /**
+     * @param timerId id of a scheduled message
+     */
+    public void cancel(long timerId) {
+        dispatcher.cancelTimer(timerId);
+    }
+
+    /**
+     * @return how often incoming messages have been dropped, spilled or timed out on a full dispatcher
+     */
+    public BackpressureCounters getBackpressureCounters() {
+        return dispatcher.counters();
+    }
+
+    // read by the tests, otherwise the counters are read from the media driver with the aeron tools
+    SendCounters sendCounters() {
+        return sendCounters;
+    }
+
 
 }
@@ -1,26 +1,189 @@
 package org.capeph.reactor;
 
+import io.aeron.ControlledFragmentAssembler;
 import io.aeron.Subscription;
-import io.aeron.logbuffer.FragmentHandler;
+import io.aeron.logbuffer.ControlledFragmentHandler;
+import io.aeron.logbuffer.Header;
+import org.agrona.DirectBuffer;
 import org.agrona.concurrent.Agent;
+import org.capeph.config.Config;
 import org.capeph.pool.MessagePool;
 
+import java.util.function.IntConsumer;
+
+
 public class ReactorAgent implements Agent {
 
-    private final Subscription subscription;
     private final String description;
-    private final FragmentHandler assembler;
+    private final MessageHandler handler;
+    private final MessageDispatcher dispatcher;
+    private final InboundLog inbound;
+    private final int fragmentLimit;
+    private final boolean adaptive;
+    private final ControlledFragmentHandler gate = this::onFragment;
+    /**
+     * the subscriptions with their assemblers and weights, highest weight first.
+     * Replaced as a whole when a lane or a group is added.
+     */
+    private static final class Subscriptions {
+        private final Subscription[] subscriptions;
+        private final ControlledFragmentHandler[] assemblers;
+        private final int[] weights;
+        private final long totalWeight;
+        private final int[] shares;   // fragments for each subscription, only used by the agent thread
+
+        private Subscriptions(Subscription[] subscriptions, ControlledFragmentHandler[] assemblers, int[] weights) {
+            this.subscriptions = subscriptions;
+            this.assemblers = assemblers;
+            this.weights = weights;
+            long total = 0;
+            for (int weight : weights) {
+                total += weight;
+            }
+            this.totalWeight = Math.max(1, total);
+            this.shares = new int[weights.length];
+        }
+
+        private Subscriptions with(Subscription subscription, ControlledFragmentHandler assembler, int weight) {
+            int count = subscriptions.length;
+            int position = 0;
+            while (position < count && weights[position] >= weight) {
+                position++;
+            }
+            Subscription[] extended = new Subscription[count + 1];
+            ControlledFragmentHandler[] extendedAssemblers = new ControlledFragmentHandler[count + 1];
+            int[] extendedWeights = new int[count + 1];
+            for (int i = 0, j = 0; i <= count; i++) {
+                if (i == position) {
+                    extended[i] = subscription;
+                    extendedAssemblers[i] = assembler;
+                    extendedWeights[i] = weight;
+                } else {
+                    extended[i] = subscriptions[j];
+                    extendedAssemblers[i] = assemblers[j];
+                    extendedWeights[i] = weights[j++];
+                }
+            }
+            return new Subscriptions(extended, extendedAssemblers, extendedWeights);
+        }
+    }
+
+    private volatile Subscriptions polled;
 
-    public ReactorAgent(Subscription subscription, ICodec codec, MessagePool pool, Dispatcher dispatcher, String description) {
+    public ReactorAgent(Subscription subscription, ICodec codec, MessagePool pool, MessageDispatcher dispatcher, String description) {
+        this(subscription, codec, pool, dispatcher, new InlineHandlers(), null, null, description);
+    }
+
+    /**
+     * @param requests told the stream of the requester of every request received, may be null
+     * @param inbound log replayed by the subscription, told which messages are handed to the dispatcher, may be null
+     */
+    ReactorAgent(Subscription subscription, ICodec codec, MessagePool pool, MessageDispatcher dispatcher,
+                 InlineHandlers inlineHandlers, IntConsumer requests, InboundLog inbound, String description) {
         this.description = description;
-        this.subscription = subscription;
-        this.assembler = new MessageHandler(codec, pool, dispatcher);
+        this.dispatcher = dispatcher;
+        this.inbound = inbound;
+        this.handler = new MessageHandler(codec, pool, dispatcher, inlineHandlers, requests);
+        this.fragmentLimit = Math.max(1, Config.receiveFragments.get());
+        this.adaptive = Config.receiveAdaptive.get();
+        // unfragmented messages pass straight through, only large messages are copied to be reassembled
+        this.polled = new Subscriptions(new Subscription[0], new ControlledFragmentHandler[0], new int[0])
+                .with(subscription, new ControlledFragmentAssembler(inbound == null ? gate : this::onReplayed), 1);
     }
 
+    /**
+     * receive messages from another subscription too, used for the groups the reactor is a member of
+     * @param subscription the subscription to poll
+     */
+    void addSubscription(Subscription subscription) {
+        addSubscription(subscription, 1);
+    }
+
+    /**
+     * receive messages from another subscription too, polled with priority by weight
+     * @param subscription the subscription to poll
+     * @param weight share of the fragment limit, relative to the other subscriptions
+     */
+    synchronized void addSubscription(Subscription subscription, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        polled = polled.with(subscription, new ControlledFragmentAssembler(gate), weight);
+    }
+
+    // when adaptive a message the dispatcher has no room for is left in the image, and polled again later
+    private ControlledFragmentHandler.Action onFragment(DirectBuffer buffer, int offset, int length, Header header) {
+        // a batch larger than the fragment limit only waits for that much room, so it can always get through
+        if (adaptive && dispatcher.remainingCapacity() < Math.min(messageCount(buffer, offset, length), fragmentLimit)) {
+            return ControlledFragmentHandler.Action.ABORT;
+        }
+        handler.onFragment(buffer, offset, length, header);
+        return ControlledFragmentHandler.Action.CONTINUE;
+    }
+
+    // the header of a reassembled message is the header of its last fragment, so only whole messages are recorded
+    private ControlledFragmentHandler.Action onReplayed(DirectBuffer buffer, int offset, int length, Header header) {
+        ControlledFragmentHandler.Action action = onFragment(buffer, offset, length, header);
+        if (action == ControlledFragmentHandler.Action.CONTINUE) {
+            inbound.handedOff(header);
+        }
+        return action;
+    }
+
+    private static int messageCount(DirectBuffer buffer, int offset, int length) {
+        if (length >= MessageBatch.FIRST_MESSAGE_OFFSET
+                && org.capeph.reactor.Header.getMessageType(buffer, offset) == org.capeph.reactor.Header.BATCH) {
+            return buffer.getInt(offset + MessageBatch.COUNT_OFFSET);
+        }
+        return 1;
+    }
+
+    private int limit() {
+        if (!adaptive) {
+            return fragmentLimit;
+        }
+        return Math.min(fragmentLimit, dispatcher.remainingCapacity());
+    }
 
     @Override
     public int doWork() {
-        return subscription.poll(assembler, 100);
+        int limit = limit();
+        if (limit <= 0) {
+            return 0;   // the dispatcher is full, leave the messages in the images
+        }
+        Subscriptions current = polled;
+        Subscription[] subscriptions = current.subscriptions;
+        int[] shares = split(limit, current.weights, current.totalWeight, current.shares);
+        int work = 0;
+        for (int i = 0; i < subscriptions.length; i++) {
+            work += subscriptions[i].controlledPoll(current.assemblers[i], shares[i]);
+        }
+        if (inbound != null) {
+            work += inbound.fence(dispatcher);
+        }
+        return work;
+    }
+
+    /**
+     * split the fragment limit by weight. Every subscription gets at least one fragment, so a low weight
+     * is never starved, and the highest weight takes what rounding leaves over, so the shares add up to
+     * the limit unless there are more subscriptions than that
+     * @param limit fragments to split
+     * @param weights weights of the subscriptions, highest first
+     * @param totalWeight sum of the weights
+     * @param shares gets the fragments for each subscription
+     * @return the shares
+     */
+    static int[] split(int limit, int[] weights, long totalWeight, int[] shares) {
+        int assigned = 0;
+        for (int i = 0; i < weights.length; i++) {
+            shares[i] = (int) Math.max(1, limit * (long) weights[i] / totalWeight);
+            assigned += shares[i];
+        }
+        if (shares.length > 0) {
+            shares[0] = Math.max(1, shares[0] + limit - assigned);
+        }
+        return shares;
     }
 
     @Override
@@ -1,11 +1,11 @@
 package org.capeph.reactor;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.capeph.config.Config;
 import org.capeph.config.Loader;
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 
 import java.net.HttpURLConnection;
@@ -13,6 +13,9 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static java.net.http.HttpRequest.BodyPublishers.ofString;
 
@@ -21,12 +24,51 @@ public class Registrar {
     private final Logger log = LogManager.getLogger(Registrar.class);
 
     public ReactorInfo register(String name, String endpoint)  {
+        return register(name, endpoint, null, null, null);
+    }
+
+    /**
+     * @param name name of the reactor
+     * @param endpoint endpoint the reactor subscribes to
+     * @param host name of the machine the reactor is running on
+     * @param driver directory of the media driver the reactor uses
+     * @param lanes names of the extra lanes of the reactor, or null
+     * @return the reactor as registered, with its stream id and the stream ids of the lanes
+     */
+    public ReactorInfo register(String name, String endpoint, String host, String driver, Collection<String> lanes)  {
+        Map<String, Integer> laneStreams = null;
+        if (lanes != null && !lanes.isEmpty()) {
+            laneStreams = new LinkedHashMap<>();
+            for (String lane : lanes) {
+                laneStreams.put(lane, 0);   // assigned by the lookup service
+            }
+        }
+        ReactorInfo info = ReactorInfo.builder()
+                .name(name)
+                .endpoint(endpoint)
+                .host(host)
+                .driver(driver)
+                .lanes(laneStreams)
+                .build();
+        return post("", info, ReactorInfo.class);
+    }
+
+    /**
+     * create a group, or get the existing group if it has the same settings
+     * @param group the group to create
+     * @return the group as registered
+     */
+    public GroupInfo registerGroup(GroupInfo group) {
+        return post("/group", group, GroupInfo.class);
+    }
+
+    private <T> T post(String path, T dto, Class<T> type) {
         try (HttpClient httpClient = HttpClient.newHttpClient()) {
             ObjectMapper objectMapper = new ObjectMapper();
             // TODO: move DTOs to separate module
-            String body = objectMapper.writeValueAsString(new ReactorInfo(name, endpoint, 0));
+            String body = objectMapper.writeValueAsString(dto);
             HttpRequest update = HttpRequest.newBuilder()
-                    .uri(new URI(Config.lookupUrl.get() + Config.lookupPath.get()))
+                    .uri(new URI(Config.lookupUrl.get() + Config.lookupPath.get() + path))
                     .header("Content-Type", "application/json")
                     .header("Accept", "application/json")
                     .POST(ofString(body))
@@ -37,19 +79,35 @@ public class Registrar {
             }
             String jsonData = response.body();
 
-            return objectMapper.readValue(jsonData, new TypeReference<>() {});
+            return objectMapper.readValue(jsonData, type);
 
         }
         catch (Exception e) {
-            log.error("Registration of reactor failed {} ", e.getMessage());
+            log.error("Registration of {} failed {} ", dto, e.getMessage());
         }
-        throw new IllegalStateException("Failed to set up reactor");
+        throw new IllegalStateException("Failed to register " + dto);
     }
 
     public ReactorInfo lookupReactor(String name) {
+        return query("/" + name, ReactorInfo.class);
+    }
+
+    public GroupInfo lookupGroup(String name) {
+        return query("/group/" + name, GroupInfo.class);
+    }
+
+    /**
+     * @param streamid stream the reactor subscribes to
+     * @return the reactor registered for the stream
+     */
+    public ReactorInfo lookupStream(int streamid) {
+        return query("/stream/" + streamid, ReactorInfo.class);
+    }
+
+    private <T> T query(String path, Class<T> type) {
         try(HttpClient httpClient = HttpClient.newHttpClient()) {
             HttpRequest query = HttpRequest.newBuilder()
-                    .uri(new URI(Config.lookupUrl.get() + Config.lookupPath.get() + "/" + name))
+                    .uri(new URI(Config.lookupUrl.get() + Config.lookupPath.get() + path))
                     .header("Accept", "application/json")
                     .GET()
                     .build();
@@ -59,7 +117,7 @@ public class Registrar {
             }
             String jsonData = response.body();
             ObjectMapper objectMapper = new ObjectMapper();
-            return objectMapper.readValue(jsonData, new TypeReference<>() {});
+            return objectMapper.readValue(jsonData, type);
 
         } catch (Exception e) {
             throw new IllegalStateException("Lookup failed:", e);
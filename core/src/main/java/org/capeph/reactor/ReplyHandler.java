@@ -0,0 +1,22 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Continuation of a request, called on the dispatcher thread
+ */
+public interface ReplyHandler {
+
+    /**
+     * @param correlationId id of the request
+     * @param reply the reply, returned to the pool when the call returns
+     */
+    void onReply(long correlationId, ReusableMessage reply);
+
+    /**
+     * no reply arrived before the timeout
+     * @param correlationId id of the request
+     */
+    void onTimeout(long correlationId);
+}
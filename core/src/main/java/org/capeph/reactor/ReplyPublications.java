@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Publication;
+import org.agrona.collections.Int2ObjectHashMap;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+
+/**
+ * Publications for replies, by the stream of the requesting reactor.
+ * The receiving thread prepares the publication when a request arrives, and the lookup runs on the
+ * resolver, so the thread that replies normally finds it ready. Preparing only adds to the cache,
+ * which is replaced as a whole, so any thread can reply while requests are being received.
+ */
+final class ReplyPublications {
+
+    private final IntFunction<Publication> connect;
+    private final Executor resolver;
+    private volatile Int2ObjectHashMap<CompletableFuture<Publication>> publications = new Int2ObjectHashMap<>();
+
+    /**
+     * @param connect looks up a stream and creates the publication to it, blocks on the lookup service
+     * @param resolver runs the lookups
+     */
+    ReplyPublications(IntFunction<Publication> connect, Executor resolver) {
+        this.connect = connect;
+        this.resolver = resolver;
+    }
+
+    /**
+     * start looking up the requester of a request, unless it is already known
+     * @param replyTo stream of the requesting reactor
+     */
+    void prepare(int replyTo) {
+        if (!usable(publications.get(replyTo))) {
+            resolve(replyTo);
+        }
+    }
+
+    /**
+     * @param replyTo stream of the requesting reactor
+     * @return publication to the requester, waits for the lookup if it is not done yet
+     */
+    Publication get(int replyTo) {
+        CompletableFuture<Publication> publication = publications.get(replyTo);
+        return (usable(publication) ? publication : resolve(replyTo)).join();
+    }
+
+    // a failed lookup is tried again by the next request
+    private static boolean usable(CompletableFuture<Publication> publication) {
+        return publication != null && !publication.isCompletedExceptionally();
+    }
+
+    private synchronized CompletableFuture<Publication> resolve(int replyTo) {
+        CompletableFuture<Publication> existing = publications.get(replyTo);
+        if (usable(existing)) {
+            return existing;
+        }
+        CompletableFuture<Publication> publication = CompletableFuture.supplyAsync(() -> connect.apply(replyTo), resolver);
+        Int2ObjectHashMap<CompletableFuture<Publication>> updated = new Int2ObjectHashMap<>(publications);
+        updated.put(replyTo, publication);
+        publications = updated;
+        return publication;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Aeron;
+import org.agrona.concurrent.status.AtomicCounter;
+
+/**
+ * Counters for the send path of a reactor. They live in the counters file of the media driver,
+ * so they can be read with the Aeron tools without logging anything per message.
+ * The counters are updated by every sending thread and the sender agent, so they use atomic adds.
+ */
+final class SendCounters implements AutoCloseable {
+
+    // type ids for the counters, above the range used by Aeron itself
+    static final int SENT_MESSAGES_TYPE_ID = 1001;
+    static final int SENT_BYTES_TYPE_ID = 1002;
+    static final int CLAIM_RETRIES_TYPE_ID = 1003;
+    static final int SEND_FAILURES_TYPE_ID = 1004;
+    static final int OVERSIZED_TYPE_ID = 1005;
+
+    final AtomicCounter sentMessages;
+    final AtomicCounter sentBytes;
+    final AtomicCounter claimRetries;
+    final AtomicCounter sendFailures;
+    final AtomicCounter oversized;      // larger than the publication can take, also counted as failures
+
+    SendCounters(Aeron aeron, String reactorName) {
+        sentMessages = aeron.addCounter(SENT_MESSAGES_TYPE_ID, "reactor sent messages: " + reactorName);
+        sentBytes = aeron.addCounter(SENT_BYTES_TYPE_ID, "reactor sent bytes: " + reactorName);
+        claimRetries = aeron.addCounter(CLAIM_RETRIES_TYPE_ID, "reactor claim retries: " + reactorName);
+        sendFailures = aeron.addCounter(SEND_FAILURES_TYPE_ID, "reactor send failures: " + reactorName);
+        oversized = aeron.addCounter(OVERSIZED_TYPE_ID, "reactor oversized messages: " + reactorName);
+    }
+
+    @Override
+    public void close() {
+        sentMessages.close();
+        sentBytes.close();
+        claimRetries.close();
+        sendFailures.close();
+        oversized.close();
+    }
+}
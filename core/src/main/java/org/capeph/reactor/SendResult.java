@@ -0,0 +1,30 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Outcome of sending a message
+ */
+public enum SendResult {
+    /**
+     * sent, or queued for the sender thread
+     */
+    OK,
+    /**
+     * the target was not connected before the send timeout ran out
+     */
+    NOT_CONNECTED,
+    /**
+     * the outbound queue of the target was full, nothing was waited for
+     */
+    BACK_PRESSURED,
+    /**
+     * the publication was back pressured until the send timeout ran out
+     */
+    TIMED_OUT,
+    /**
+     * the publication is closed or the message could not be encoded
+     */
+    FAILED
+}
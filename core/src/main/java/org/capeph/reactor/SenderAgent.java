@@ -0,0 +1,42 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.concurrent.Agent;
+
+import java.util.Arrays;
+
+/**
+ * Drains the outbound queues of a reactor, so the threads queueing messages never wait for a publication.
+ */
+final class SenderAgent implements Agent {
+
+    private final String roleName;
+    private volatile OutboundQueue[] queues = new OutboundQueue[0];
+
+    SenderAgent(String roleName) {
+        this.roleName = roleName;
+    }
+
+    synchronized void add(OutboundQueue queue) {
+        OutboundQueue[] extended = Arrays.copyOf(queues, queues.length + 1);
+        extended[queues.length] = queue;
+        queues = extended;
+    }
+
+    @Override
+    public int doWork() {
+        OutboundQueue[] current = queues;
+        int work = 0;
+        for (OutboundQueue queue : current) {
+            work += queue.drain();
+        }
+        return work;
+    }
+
+    @Override
+    public String roleName() {
+        return roleName;
+    }
+}
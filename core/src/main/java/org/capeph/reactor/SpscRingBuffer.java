@@ -0,0 +1,33 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Ring buffer for exactly one producer thread and one consumer thread.
+ * The producer owns the tail, so publishing an element is a plain store followed by an ordered store of the tail.
+ *
+ * @param <T> type of element
+ */
+public class SpscRingBuffer<T> extends PaddedRingBuffer<T> {
+
+    public SpscRingBuffer(int sizeFactor) {
+        super(sizeFactor);
+    }
+
+    @Override
+    public boolean offer(T element) {
+        long current = (long) TAIL.get(this);
+        long limit = (long) HEAD_CACHE.get(this);
+        if (current >= limit) {
+            limit = (long) HEAD.getAcquire(this) + capacity;
+            if (current >= limit) {
+                return false;
+            }
+            HEAD_CACHE.set(this, limit);
+        }
+        ELEMENTS.setRelease(store, (int) current & mask, element);
+        TAIL.setRelease(this, current + 1);
+        return true;
+    }
+}
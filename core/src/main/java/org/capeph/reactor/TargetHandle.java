@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Publication;
+
+import java.util.Map;
+
+/**
+ * A resolved target reactor, bound to the publication used to send to it.
+ * Sending through a handle needs no lookup, so handles should be resolved once and kept.
+ */
+public final class TargetHandle {
+
+    private final String name;
+    private final int streamId;
+    private final Publication publication;
+    private final Reactor local;   // null unless the target runs in this process
+    private final Map<String, Publication> lanes;
+    private volatile OutboundQueue queue;   // created when the first message is queued
+
+    TargetHandle(String name, int streamId, Publication publication) {
+        this(name, streamId, publication, Map.of(), null);
+    }
+
+    TargetHandle(String name, int streamId, Publication publication, Map<String, Publication> lanes, Reactor local) {
+        this.name = name;
+        this.streamId = streamId;
+        this.publication = publication;
+        this.lanes = lanes;
+        this.local = local;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * @return true if the target reactor is subscribed and messages can be sent
+     */
+    public boolean isConnected() {
+        return publication.isConnected();
+    }
+
+    Publication publication() {
+        return publication;
+    }
+
+    /**
+     * @param lane name of a lane of the target
+     * @return publication for the lane, or for the default lane if the target has no such lane
+     */
+    Publication publication(String lane) {
+        Publication lanePublication = lanes.get(lane);
+        return lanePublication == null ? publication : lanePublication;
+    }
+
+    Reactor local() {
+        return local;
+    }
+
+    OutboundQueue queue() {
+        return queue;
+    }
+
+    void queue(OutboundQueue queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public String toString() {
+        return "TargetHandle[" + name + ", stream=" + streamId + ", channel=" + publication.channel() + ']';
+    }
+}
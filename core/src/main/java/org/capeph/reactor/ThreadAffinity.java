@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pins threads to cpu cores without native code.
+ * The id of the calling thread is read from /proc/thread-self and the affinity is set with taskset,
+ * so this only works on Linux with util-linux installed.
+ */
+public final class ThreadAffinity {
+
+    private static final Logger log = LogManager.getLogger(ThreadAffinity.class);
+    private static final Path THREAD_SELF = Path.of("/proc/thread-self");
+
+    private ThreadAffinity() {
+    }
+
+    /**
+     * @return the kernel id of the calling thread, or -1 if it is not available
+     */
+    public static long currentThreadId() {
+        try {
+            return Long.parseLong(Files.readSymbolicLink(THREAD_SELF).getFileName().toString());  // <pid>/task/<tid>
+        } catch (IOException | UnsupportedOperationException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * restrict the calling thread to a single cpu
+     * @param cpu the cpu to run on
+     * @return true if the thread was pinned
+     */
+    public static boolean pinCurrentThread(int cpu) {
+        long tid = currentThreadId();
+        if (tid < 0) {
+            log.warn("Can not pin {} to cpu {}, thread ids are not available", Thread.currentThread().getName(), cpu);
+            return false;
+        }
+        try {
+            Process process = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(cpu), Long.toString(tid))
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (process.waitFor() != 0) {
+                log.warn("Failed to pin {} to cpu {}: {}", Thread.currentThread().getName(), cpu, output);
+                return false;
+            }
+            log.info("Pinned {} (tid {}) to cpu {}", Thread.currentThread().getName(), tid, cpu);
+            return true;
+        } catch (IOException e) {
+            log.warn("Failed to pin {} to cpu {}: {}", Thread.currentThread().getName(), cpu, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+}
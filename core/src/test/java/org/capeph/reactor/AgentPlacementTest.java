@@ -0,0 +1,55 @@
+package org.capeph.reactor;
+
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class AgentPlacementTest {
+
+    @Test
+    public void testCpuList() {
+        assertEquals(AgentPlacement.ANY_CPU, AgentPlacement.cpuAt("", 0));
+        assertEquals(AgentPlacement.ANY_CPU, AgentPlacement.cpuAt(null, 0));
+        assertEquals(2, AgentPlacement.cpuAt("2, 3", 0));
+        assertEquals(3, AgentPlacement.cpuAt("2, 3", 1));
+        assertEquals(AgentPlacement.ANY_CPU, AgentPlacement.cpuAt("2, 3", 2));
+    }
+
+    @Test
+    public void testPinnedAgentThread() throws Exception {
+        assumeTrue(ThreadAffinity.currentThreadId() > 0, "thread ids not available");
+        assumeTrue(Files.isExecutable(Path.of("/usr/bin/taskset")), "taskset not installed");
+        CompletableFuture<String> status = new CompletableFuture<>();
+        Agent agent = new Agent() {
+            @Override
+            public int doWork() throws Exception {
+                if (!status.isDone()) {
+                    String name = Thread.currentThread().getName();
+                    String allowed = Files.readAllLines(Path.of("/proc/thread-self/status")).stream()
+                            .filter(l -> l.startsWith("Cpus_allowed_list"))
+                            .findFirst().orElse("");
+                    status.complete(name + " " + allowed.substring(allowed.indexOf(':') + 1).trim());
+                }
+                return 0;
+            }
+
+            @Override
+            public String roleName() {
+                return "test";
+            }
+        };
+        AgentRunner runner = new AgentRunner(new SleepingIdleStrategy(), Throwable::printStackTrace, null, agent);
+        new AgentPlacement("pinned-agent", 0).start(runner);
+        assertEquals("pinned-agent 0", status.get(10, TimeUnit.SECONDS));
+        runner.close();
+    }
+}
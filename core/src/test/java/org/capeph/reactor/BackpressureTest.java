@@ -0,0 +1,125 @@
+package org.capeph.reactor;
+
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.capeph.config.Config;
+import org.capeph.pool.MessagePool;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BackpressureTest {
+
+    public static class NumberedMessage implements ReusableMessage {
+
+        public final int number;
+
+        public NumberedMessage(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public void clear() {
+        }
+    }
+
+    // the slot of the blocked message is not freed until its handler returns
+    private final int capacity = (1 << Config.maxPoolSize.get()) - 1;
+    private final List<Integer> handled = new CopyOnWriteArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    // the first message blocks the dispatcher thread, the ring buffer is then filled up
+    private Dispatcher blockedDispatcher(BackpressurePolicy policy) throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher(new SleepingIdleStrategy(), new MessagePool(m -> {}), false, ProducerMode.SINGLE);
+        dispatcher.setBackpressurePolicy(policy);
+        dispatcher.addMessageHandler(NumberedMessage.class, m -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.add(((NumberedMessage) m).number);
+        });
+        dispatcher.accept(new NumberedMessage(-1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return dispatcher;
+    }
+
+    private void awaitHandled(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        Dispatcher dispatcher = blockedDispatcher(BackpressurePolicy.DROP_NEWEST);
+        for (int i = 0; i < capacity + 10; i++) {
+            dispatcher.accept(new NumberedMessage(i));
+        }
+        assertEquals(10, dispatcher.counters().getDroppedNewest());
+        release.countDown();
+        awaitHandled(capacity + 1);
+        dispatcher.stop();
+        assertEquals(capacity + 1, handled.size());
+        assertEquals(capacity - 1, handled.get(capacity));
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        Dispatcher dispatcher = blockedDispatcher(BackpressurePolicy.DROP_OLDEST);
+        for (int i = 0; i < capacity + 10; i++) {
+            dispatcher.accept(new NumberedMessage(i));
+        }
+        release.countDown();
+        awaitHandled(capacity + 1);
+        dispatcher.stop();
+        assertEquals(10, dispatcher.counters().getDroppedOldest());
+        assertEquals(capacity + 1, handled.size());
+        assertEquals(10, handled.get(1));
+        assertEquals(capacity + 9, handled.get(capacity));
+    }
+
+    @Test
+    public void testSpill() throws InterruptedException {
+        Dispatcher dispatcher = blockedDispatcher(BackpressurePolicy.SPILL);
+        for (int i = 0; i < capacity + 10; i++) {
+            dispatcher.accept(new NumberedMessage(i));
+        }
+        assertEquals(10, dispatcher.counters().getSpilled());
+        release.countDown();
+        awaitHandled(capacity + 11);
+        dispatcher.stop();
+        assertEquals(capacity + 11, handled.size());
+        for (int i = 0; i < capacity + 10; i++) {
+            assertEquals(i, handled.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testRemainingCapacity() throws InterruptedException {
+        Dispatcher dispatcher = blockedDispatcher(BackpressurePolicy.DROP_NEWEST);
+        assertEquals(capacity, dispatcher.remainingCapacity());
+        for (int i = 0; i < 10; i++) {
+            dispatcher.accept(new NumberedMessage(i));
+        }
+        assertEquals(capacity - 10, dispatcher.remainingCapacity());
+        for (int i = 10; i < capacity; i++) {
+            dispatcher.accept(new NumberedMessage(i));
+        }
+        assertEquals(0, dispatcher.remainingCapacity());
+        assertEquals(0, dispatcher.counters().getDroppedNewest());
+        release.countDown();
+        awaitHandled(capacity + 1);
+        dispatcher.stop();
+        assertEquals(capacity + 1, dispatcher.remainingCapacity());
+    }
+}
@@ -2,9 +2,15 @@ package org.capeph.reactor;
 
 import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.SleepingIdleStrategy;
+import org.capeph.annotations.OnMessage;
 import org.capeph.pool.MessagePool;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class DispatcherTest {
@@ -76,6 +82,151 @@ class DispatcherTest {
         assertEquals(6, msg.value);
     }
 
+    public static class OtherMessage implements ReusableMessage {
+
+        public int value = 0;
+
+        @Override
+        public void clear() {
+        }
+    }
+
+    @Test
+    public void testMultipleMessageTypes() {
+        IdleStrategy strategy = new SleepingIdleStrategy();
+        MessagePool pool = new MessagePool(m -> {});
+        Dispatcher dispatch = new Dispatcher(strategy, pool, true);
+        dispatch.addMessageHandler(
+                TestMessage.class,
+                m -> ((TestMessage)m).value += 1);
+        dispatch.addMessageHandler(
+                OtherMessage.class,
+                m -> ((OtherMessage)m).value += 10);
+        dispatch.addMessageHandler(
+                TestMessage.class,
+                m -> ((TestMessage)m).value += 5);
+        TestMessage msg = new TestMessage();
+        OtherMessage other = new OtherMessage();
+        for (int i = 0; i < 3; i++) {
+            assertDoesNotThrow(() -> dispatch.accept(msg));
+            assertDoesNotThrow(() -> dispatch.accept(other));
+        }
+        assertEquals(18, msg.value);
+        assertEquals(30, other.value);
+    }
+
+    public static class TypedHandler {
+
+        int others = 0;
+
+        @OnMessage
+        void onTest(TestMessage msg) {
+            msg.value += 1;
+        }
+
+        @OnMessage
+        void onOther(OtherMessage msg) {
+            others += msg.value;
+        }
+
+        @OnMessage
+        void flagTest(TestMessage msg) {
+            msg.flag = true;
+        }
+    }
+
+    @Test
+    public void testGeneratedTypedHandler() {
+        IdleStrategy strategy = new SleepingIdleStrategy();
+        MessagePool pool = new MessagePool(m -> {});
+        Dispatcher dispatch = new Dispatcher(strategy, pool, true);
+        TypedHandler handler = new TypedHandler();
+        TypedDispatch typed = new DispatcherTest_TypedHandlerDispatch(handler);
+        assertArrayEquals(new Class[] {TestMessage.class, OtherMessage.class}, typed.messageTypes());
+        dispatch.addTypedHandler(typed, HandlerExecution.DISPATCHER);
+        dispatch.addMessageHandler(TestMessage.class, m -> ((TestMessage)m).value += 5);
+        TestMessage msg = new TestMessage();
+        OtherMessage other = new OtherMessage();
+        other.value = 3;
+        dispatch.accept(msg);
+        dispatch.accept(other);
+        assertEquals(6, msg.value);
+        assertTrue(msg.flag);
+        assertEquals(3, handler.others);
+    }
+
+    @Test
+    public void testVirtualThreadHandler() throws InterruptedException {
+        IdleStrategy strategy = new SleepingIdleStrategy();
+        MessagePool pool = new MessagePool(m -> ((TestMessage)m).clear());
+        Dispatcher dispatch = new Dispatcher(strategy, pool, true);
+        CountDownLatch done = new CountDownLatch(3);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        dispatch.addMessageHandler(TestMessage.class, m -> {
+            try {
+                Thread.sleep(10);  // blocking work
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            assertTrue(Thread.currentThread().isVirtual());
+            assertEquals(0, ((TestMessage)m).cleared);   // not returned to the pool yet
+            order.add(((TestMessage)m).value);
+            done.countDown();
+        }, HandlerExecution.VIRTUAL_THREAD);
+        TestMessage[] msgs = new TestMessage[3];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = new TestMessage();
+            msgs[i].value = i;
+            dispatch.accept(msgs[i]);   // returns before the handler has run
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        dispatch.stop();
+        assertEquals(List.of(0, 1, 2), order);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (msgs[2].cleared == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        for (TestMessage msg : msgs) {
+            assertEquals(1, msg.cleared);
+        }
+    }
+
+    @Test
+    public void testScheduledMessages() throws InterruptedException {
+        IdleStrategy strategy = new SleepingIdleStrategy();
+        MessagePool pool = new MessagePool(m -> ((TestMessage)m).clear());
+        Dispatcher dispatch = new Dispatcher(strategy, pool, false);
+        List<Integer> handled = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        dispatch.addMessageHandler(TestMessage.class, m -> {
+            handled.add(((TestMessage)m).value);
+            threads.add(Thread.currentThread().getName());
+        });
+        TestMessage once = new TestMessage();
+        once.value = 1;
+        TestMessage periodic = new TestMessage();
+        periodic.value = 2;
+        long start = System.nanoTime();
+        dispatch.schedule(once, TimeUnit.MILLISECONDS.toNanos(50), 0);
+        long timer = dispatch.schedule(periodic, 0, TimeUnit.MILLISECONDS.toNanos(10));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (once.cleared == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(handled.contains(1));
+        assertEquals(1, once.cleared);   // one shot messages go back to the pool
+        dispatch.cancelTimer(timer);
+        Thread.sleep(50);
+        int count = handled.size();
+        Thread.sleep(50);
+        dispatch.stop();
+        assertEquals(count, handled.size());
+        assertTrue(handled.stream().filter(v -> v == 2).count() >= 3);
+        assertEquals(1, periodic.cleared);   // periodic messages go back when cancelled
+        assertTrue(threads.stream().allMatch("dispatcher"::equals));
+    }
+
     @Test
     public void testHasMessageHandlerThreaded() throws InterruptedException {
         IdleStrategy strategy = new SleepingIdleStrategy();
@@ -101,6 +252,28 @@ class DispatcherTest {
 
     }
 
+    @Test
+    public void testFenceRunsAfterEarlierMessages() throws InterruptedException {
+        IdleStrategy strategy = new SleepingIdleStrategy();
+        MessagePool pool = new MessagePool(m -> {});
+        Dispatcher dispatch = new Dispatcher(strategy, pool, false);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        dispatch.addMessageHandler(TestMessage.class, m -> order.add(((TestMessage)m).value));
+        CountDownLatch fenced = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            TestMessage msg = new TestMessage();
+            msg.value = i;
+            dispatch.accept(msg);
+        }
+        assertTrue(dispatch.fence(() -> {
+            order.add(-1);
+            fenced.countDown();
+        }));
+        assertTrue(fenced.await(10, TimeUnit.SECONDS));
+        dispatch.stop();
+        assertEquals(List.of(0, 1, 2, -1), order);
+    }
+
     // TODO test multiple handlers
 
 }
\ No newline at end of file
@@ -0,0 +1,106 @@
+package org.capeph.reactor;
+
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.capeph.config.Config;
+import org.capeph.config.Loader;
+import org.capeph.messages.DemoMessage;
+import org.capeph.messages.codec.Codec;
+import org.capeph.pool.MessagePool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameDispatcherTest {
+
+    private DemoMessage demo(int value) {
+        DemoMessage msg = new DemoMessage();
+        msg.setStringField("demo");
+        msg.setIntField(value);
+        return msg;
+    }
+
+    @Test
+    public void testFramesDecodedOnDispatcher() {
+        Codec codec = new Codec();
+        MessagePool shared = new MessagePool(m -> codec.clear((ReusableMessage) m));
+        FrameDispatcher dispatcher = new FrameDispatcher(new SleepingIdleStrategy(), codec, shared, null);
+        List<Integer> values = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        dispatcher.addMessageHandler(DemoMessage.class, m -> {
+            values.add(((DemoMessage) m).getIntField());
+            threads.add(Thread.currentThread());
+        });
+        UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(256));
+        for (int i = 0; i < 3; i++) {
+            DemoMessage msg = demo(i);
+            int length = codec.encode(msg, buffer, 0);
+            dispatcher.offer(buffer, 0, length);
+        }
+        dispatcher.accept(demo(3));
+        assertTrue(values.isEmpty());   // nothing is handled until the dispatcher runs
+        assertEquals(4, dispatcher.doWork());
+        assertEquals(List.of(0, 1, 2, 3), values);
+        assertTrue(threads.stream().allMatch(t -> t == Thread.currentThread()));
+        assertEquals(0, dispatcher.doWork());
+        dispatcher.stop();
+    }
+
+    private FrameDispatcher small(Codec codec, String policy) {
+        System.setProperty(Config.handoffSize.getPath(), "10");
+        System.setProperty(Config.backpressurePolicy.getPath(), policy);
+        System.setProperty(Config.backpressureTimeout.getPath(), "10");
+        Loader.reloadConfig();
+        try {
+            return new FrameDispatcher(new SleepingIdleStrategy(), codec, new MessagePool(m -> {}), null);
+        } finally {
+            System.clearProperty(Config.handoffSize.getPath());
+            System.clearProperty(Config.backpressurePolicy.getPath());
+            System.clearProperty(Config.backpressureTimeout.getPath());
+            Loader.reloadConfig();
+        }
+    }
+
+    // offer more frames than the ring buffer holds, the ones that do not fit are counted instead of waited for
+    private int fill(FrameDispatcher dispatcher, Codec codec) {
+        List<Integer> values = new ArrayList<>();
+        dispatcher.addMessageHandler(DemoMessage.class, m -> values.add(((DemoMessage) m).getIntField()));
+        UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(256));
+        int capacity = -1;
+        for (int i = 0; i < 64; i++) {
+            int length = codec.encode(demo(i), buffer, 0);
+            dispatcher.offer(buffer, 0, length);
+            capacity = capacity < 0 ? dispatcher.remainingCapacity() + 1 : capacity;
+        }
+        dispatcher.accept(demo(64));
+        assertEquals(0, dispatcher.remainingCapacity());
+        int work;
+        while ((work = dispatcher.doWork()) > 0) {
+            assertTrue(work <= capacity);
+        }
+        assertTrue(values.size() >= capacity - 1 && values.size() < 64);
+        assertEquals(dispatcher.remainingCapacity(), capacity);
+        dispatcher.stop();
+        return 65 - values.size();
+    }
+
+    @Test
+    public void testDropNewestWhenFull() {
+        Codec codec = new Codec();
+        FrameDispatcher dispatcher = small(codec, "drop-newest");
+        assertEquals(fill(dispatcher, codec), dispatcher.counters().getDroppedNewest());
+        assertEquals(0, dispatcher.counters().getTimedOut());
+    }
+
+    @Test
+    public void testBlockTimesOutWhenFull() {
+        Codec codec = new Codec();
+        FrameDispatcher dispatcher = small(codec, "block");
+        assertEquals(fill(dispatcher, codec), dispatcher.counters().getTimedOut());
+        assertEquals(0, dispatcher.counters().getDroppedNewest());
+    }
+}
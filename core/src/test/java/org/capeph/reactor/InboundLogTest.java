@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import io.aeron.Aeron;
+import io.aeron.ExclusivePublication;
+import io.aeron.archive.client.AeronArchive;
+import io.aeron.driver.MediaDriver;
+import io.aeron.logbuffer.FragmentHandler;
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.capeph.pool.MessagePool;
+import org.capeph.reactor.BackpressureTest.NumberedMessage;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboundLogTest {
+
+    private static final int STREAM = 4711;
+    private static final long TIMEOUT_NS = 10_000_000_000L;
+
+    private static Aeron aeron;
+
+    @BeforeAll
+    public static void startDriver() {
+        if (!MediaDriver.Context.isDriverActive(new File(DriverProfile.directory()), 1000, s -> {})) {
+            MediaDriver.launch(DriverProfile.context());
+        }
+        aeron = Aeron.connect(new Aeron.Context().aeronDirectoryName(DriverProfile.directory()));
+    }
+
+    @AfterAll
+    public static void closeClient() {
+        aeron.close();
+    }
+
+    private static void publish(ExclusivePublication publication, int value) {
+        UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocate(Integer.BYTES));
+        buffer.putInt(0, value);
+        long deadline = System.nanoTime() + TIMEOUT_NS;
+        while (publication.offer(buffer) < 0) {
+            assertTrue(System.nanoTime() < deadline, "publication not connected to the recording");
+            Thread.yield();
+        }
+    }
+
+    private static void handOff(InboundLog inbound, Dispatcher dispatcher, int count) {
+        FragmentHandler handler = (buffer, offset, length, header) -> {
+            dispatcher.accept(new NumberedMessage(buffer.getInt(offset)));
+            inbound.handedOff(header);
+        };
+        int handed = 0;
+        long deadline = System.nanoTime() + TIMEOUT_NS;
+        while (handed < count) {
+            assertTrue(System.nanoTime() < deadline, "handed off " + handed);
+            inbound.doWork();
+            handed += inbound.subscription().poll(handler, count - handed);
+        }
+    }
+
+    private static void awaitReceived(List<Integer> received, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT_NS;
+        while (received.size() < expected) {
+            assertTrue(System.nanoTime() < deadline, "received " + received);
+            Thread.sleep(1);
+        }
+    }
+
+    private static Dispatcher dispatcher(Consumer<ReusableMessage> handler) {
+        Dispatcher dispatcher = new Dispatcher(new SleepingIdleStrategy(), new MessagePool(m -> {}), false, ProducerMode.SINGLE);
+        dispatcher.addMessageHandler(NumberedMessage.class, handler);
+        return dispatcher;
+    }
+
+    @Test
+    public void testReplayAfterRestart() throws InterruptedException {
+        String name = "inboundtest" + System.nanoTime();
+        ExclusivePublication publication = aeron.addExclusivePublication("aeron:ipc", STREAM);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the first run handles four messages and stops in the handler of the fifth, with the rest still queued
+        Dispatcher firstDispatcher = dispatcher(m -> {
+            int number = ((NumberedMessage) m).number;
+            if (number < 4) {
+                received.add(number);
+                return;
+            }
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        InboundLog first = new InboundLog(aeron, name, STREAM, List.of("aeron:ipc"));
+        for (int i = 0; i < 10; i++) {
+            publish(publication, i);
+        }
+        handOff(first, firstDispatcher, 4);
+        assertEquals(1, first.fence(firstDispatcher));
+        handOff(first, firstDispatcher, 6);
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));   // the fence behind the fourth message has been reached
+        assertEquals(0, first.fence(firstDispatcher));     // no new fence until the checkpoint
+        first.onClose();
+        first.subscription().close();
+        release.countDown();
+        firstDispatcher.stop();
+        assertEquals(List.of(0, 1, 2, 3), received);
+
+        // recorded while the reactor is down, wait until the archive has it all
+        for (int i = 10; i < 15; i++) {
+            publish(publication, i);
+        }
+        try (AeronArchive archive = ArchiveProfile.connect(aeron, STREAM + 1, null)) {
+            long recordingId = archive.findLastMatchingRecording(0, "aeron:ipc", STREAM, publication.sessionId());
+            long deadline = System.nanoTime() + TIMEOUT_NS;
+            while (archive.getRecordingPosition(recordingId) < publication.position()) {
+                assertTrue(System.nanoTime() < deadline, "not recorded");
+                Thread.yield();
+            }
+        }
+
+        // the messages that were queued or being handled are replayed
+        Dispatcher secondDispatcher = dispatcher(m -> received.add(((NumberedMessage) m).number));
+        InboundLog second = new InboundLog(aeron, name, STREAM, List.of("aeron:ipc"));
+        handOff(second, secondDispatcher, 11);
+        publish(publication, 15);   // recorded by the new recording
+        handOff(second, secondDispatcher, 1);
+        awaitReceived(received, 16);
+        second.onClose();
+        second.subscription().close();
+        secondDispatcher.stop();
+        publication.close();
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, received.get(i));
+        }
+    }
+}
@@ -4,11 +4,17 @@ import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.SleepingIdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.capeph.messages.DemoMessage;
+import org.capeph.messages.codec.Codec;
+import org.capeph.messages.codec.DemoMessageFlyweight;
 import org.capeph.pool.MessagePool;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.junit.jupiter.api.Assertions.fail;
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 class MessageHandlerTest {
 
@@ -82,4 +88,64 @@ class MessageHandlerTest {
         System.out.println("Avg time = " + ((double)(end - start))/its + "ns");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testInlineFlyweightHandler() {
+        Codec codec = new Codec();
+        MessagePool pool = new MessagePool(m -> codec.clear((ReusableMessage) m));
+        pool.addMessagePool(DemoMessage.class);
+        DemoMessage msg = new DemoMessage();
+        msg.setStringField("text");
+        msg.setStringBufferField("buffered");
+        msg.setIntField(42);
+        msg.setBoolField(true);
+        msg.setDoubleField(2.5);
+        msg.setLongField(1L << 40);
+        UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(256));
+        int length = codec.encode(msg, buffer, 16) - 16;
+        assertEquals(codec.encodedLength(msg), length);
+
+        Dispatcher dispatcher = new Dispatcher(new SleepingIdleStrategy(), pool, true);
+        dispatcher.addMessageHandler(DemoMessage.class, m -> fail("inline message was decoded"));
+        InlineHandlers inline = new InlineHandlers();
+        StringBuilder text = new StringBuilder();
+        long[] seen = new long[1];
+        inline.register(new DemoMessageFlyweight(), fw -> {
+            assertEquals(42, fw.getIntField());
+            assertTrue(fw.isBoolField());
+            assertEquals(2.5, fw.getDoubleField());
+            assertEquals(4, fw.getStringFieldLength());
+            fw.getStringField(text);
+            fw.getStringBufferField(text);
+            seen[0] = fw.getLongField();
+        });
+        MessageHandler handler = new MessageHandler(codec, pool, dispatcher, inline, null);
+        handler.onFragment(buffer, 16, length, null);
+        assertEquals("textbuffered", text.toString());
+        assertEquals(1L << 40, seen[0]);
+        assertThrows(IllegalStateException.class, () -> inline.register(new DemoMessageFlyweight(), fw -> {}));
+
+        // without an inline handler the same fragment is decoded and dispatched
+        DemoMessage[] decoded = new DemoMessage[1];
+        Dispatcher decoding = new Dispatcher(new SleepingIdleStrategy(), pool, true);
+        decoding.addMessageHandler(DemoMessage.class, m -> decoded[0] = (DemoMessage) m);
+        new MessageHandler(codec, pool, decoding).onFragment(buffer, 16, length, null);
+        assertNotNull(decoded[0]);
+    }
+
+    @Test
+    public void testEqualityCoversAllFields() {
+        MessagePool pool = new MessagePool(m -> {});
+        ICodec codec = new TestCodec();
+        Dispatcher dispatcher = new Dispatcher(new SleepingIdleStrategy(), pool, true);
+        InlineHandlers inline = new InlineHandlers();
+        IntConsumer requests = replyTo -> {};
+        MessageHandler handler = new MessageHandler(codec, pool, dispatcher, inline, requests);
+        MessageHandler same = new MessageHandler(codec, pool, dispatcher, inline, requests);
+        assertEquals(handler, same);
+        assertEquals(handler.hashCode(), same.hashCode());
+        assertNotEquals(handler, new MessageHandler(codec, pool, dispatcher, new InlineHandlers(), requests));
+        assertNotEquals(handler, new MessageHandler(codec, pool, dispatcher, inline, null));
+        assertTrue(handler.toString().contains("inlineHandlers="));
+    }
+
+}
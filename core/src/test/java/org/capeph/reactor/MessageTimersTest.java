@@ -0,0 +1,57 @@
+package org.capeph.reactor;
+
+import org.capeph.config.Config;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTimersTest {
+
+    private final List<ReusableMessage> fired = new ArrayList<>();
+    private final List<ReusableMessage> released = new ArrayList<>();
+    private final MessageTimers timers = new MessageTimers(fired::add, fired::add, released::add);
+
+    private static ReusableMessage message() {
+        return () -> {};
+    }
+
+    @Test
+    public void testSlotsAreReused() {
+        int capacity = Config.timerCapacity.get();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < capacity; i++) {
+                timers.schedule(message(), 0, 0);
+            }
+            assertThrows(IllegalStateException.class, () -> timers.schedule(message(), 0, 0));
+            while (!timers.isEmpty()) {
+                timers.poll(System.nanoTime() + 1_000_000_000L);
+            }
+        }
+        assertEquals(3 * capacity, fired.size());
+    }
+
+    @Test
+    public void testCancelOfExpiredTimer() {
+        long expired = timers.schedule(message(), 0, 0);
+        for (int i = 1; i < Config.timerCapacity.get(); i++) {
+            timers.schedule(message(), 0, 0);
+        }
+        while (!timers.isEmpty()) {
+            timers.poll(System.nanoTime() + 1_000_000_000L);
+        }
+        int expiredCount = fired.size();
+        ReusableMessage periodic = message();
+        long next = timers.schedule(periodic, 1_000_000_000L, 1_000_000_000L);
+        assertEquals((int) expired, (int) next);    // the slot is reused
+        timers.cancel(expired);
+        timers.poll(System.nanoTime());
+        assertTrue(released.isEmpty());
+        timers.cancel(next);
+        timers.poll(System.nanoTime());
+        assertEquals(List.of(periodic), released);
+        assertEquals(expiredCount, fired.size());
+    }
+}
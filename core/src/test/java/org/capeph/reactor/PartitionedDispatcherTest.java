@@ -0,0 +1,137 @@
+package org.capeph.reactor;
+
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.capeph.messages.DemoMessage;
+import org.capeph.messages.codec.Codec;
+import org.capeph.pool.MessagePool;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionedDispatcherTest {
+
+    public static class KeyedMessage implements ReusableMessage {
+
+        public int key;
+        public int sequence;
+
+        public KeyedMessage(int key, int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public int partitionKey() {
+            return key;
+        }
+    }
+
+    public static class DefaultMessage implements ReusableMessage {
+        @Override
+        public void clear() {
+        }
+    }
+
+    @Test
+    public void testPerKeyOrdering() throws InterruptedException {
+        MessagePool pool = new MessagePool(m -> {});
+        PartitionedDispatcher dispatcher = new PartitionedDispatcher(
+                SleepingIdleStrategy::new, pool, 4, ProducerMode.SINGLE);
+        int keys = 16;
+        int perKey = 1000;
+        int[] lastSequence = new int[keys];
+        Map<Integer, Thread> threadForKey = new ConcurrentHashMap<>();
+        AtomicInteger handled = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        dispatcher.addMessageHandler(KeyedMessage.class, m -> {
+            KeyedMessage msg = (KeyedMessage) m;
+            if (msg.sequence != lastSequence[msg.key] + 1) {
+                errors.incrementAndGet();
+            }
+            lastSequence[msg.key] = msg.sequence;
+            Thread owner = threadForKey.computeIfAbsent(msg.key, k -> Thread.currentThread());
+            if (owner != Thread.currentThread()) {
+                errors.incrementAndGet();
+            }
+            handled.incrementAndGet();
+        });
+        for (int seq = 1; seq <= perKey; seq++) {
+            for (int key = 0; key < keys; key++) {
+                dispatcher.accept(new KeyedMessage(key, seq));
+            }
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handled.get() < keys * perKey && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        dispatcher.stop();
+        assertEquals(keys * perKey, handled.get());
+        assertEquals(0, errors.get());
+        assertTrue(threadForKey.values().stream().distinct().count() > 1, "all keys ended up on one thread");
+    }
+
+    @Test
+    public void testPartitionRange() {
+        MessagePool pool = new MessagePool(m -> {});
+        PartitionedDispatcher dispatcher = new PartitionedDispatcher(
+                SleepingIdleStrategy::new, pool, 3, ProducerMode.SINGLE);
+        for (int key = -1000; key < 1000; key++) {
+            int partition = dispatcher.partitionFor(key);
+            assertTrue(partition >= 0 && partition < 3);
+        }
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testMessageWithoutKeyIsRejected() {
+        MessagePool pool = new MessagePool(m -> {});
+        PartitionedDispatcher dispatcher = new PartitionedDispatcher(
+                SleepingIdleStrategy::new, pool, 2, ProducerMode.SINGLE);
+        assertThrows(IllegalArgumentException.class, () -> dispatcher.addMessageHandler(DefaultMessage.class, m -> {}));
+        dispatcher.addMessageHandler(KeyedMessage.class, m -> {});
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testGeneratedKey() throws InterruptedException {
+        Codec codec = new Codec();
+        MessagePool pool = new MessagePool(m -> {});
+        PartitionedDispatcher dispatcher = new PartitionedDispatcher(SleepingIdleStrategy::new, pool, 4,
+                ProducerMode.SINGLE, i -> AgentPlacement.unpinned("dispatcher-" + i), codec);
+        assertThrows(IllegalArgumentException.class, () -> dispatcher.addMessageHandler(DefaultMessage.class, m -> {}));
+        Map<Integer, Thread> threadForKey = new ConcurrentHashMap<>();
+        AtomicInteger handled = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        dispatcher.addMessageHandler(DemoMessage.class, m -> {
+            Thread owner = threadForKey.computeIfAbsent(((DemoMessage) m).getIntField(), k -> Thread.currentThread());
+            if (owner != Thread.currentThread()) {
+                errors.incrementAndGet();
+            }
+            handled.incrementAndGet();
+        });
+        int keys = 16;
+        for (int i = 0; i < 100 * keys; i++) {
+            DemoMessage msg = new DemoMessage();
+            msg.setIntField(i % keys);
+            assertEquals(i % keys, codec.partitionKey(msg));
+            dispatcher.accept(msg);
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (handled.get() < 100 * keys && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        dispatcher.stop();
+        assertEquals(100 * keys, handled.get());
+        assertEquals(0, errors.get());
+        assertTrue(threadForKey.values().stream().distinct().count() > 1, "all keys ended up on one thread");
+    }
+}
@@ -0,0 +1,55 @@
+package org.capeph.reactor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PendingRepliesTest {
+
+    private final List<Long> replied = new ArrayList<>();
+    private final List<Long> timedOut = new ArrayList<>();
+
+    private final ReplyHandler handler = new ReplyHandler() {
+        @Override
+        public void onReply(long correlationId, ReusableMessage reply) {
+            replied.add(correlationId);
+        }
+
+        @Override
+        public void onTimeout(long correlationId) {
+            timedOut.add(correlationId);
+        }
+    };
+
+    @Test
+    public void testReplyAndTimeout() {
+        PendingReplies pending = new PendingReplies(2);
+        long answered = pending.register(handler, TimeUnit.SECONDS.toNanos(10));
+        long expiring = pending.register(handler, 0);
+        assertTrue(pending.complete(answered, null));
+        assertFalse(pending.complete(answered, null));   // only completed once
+        assertEquals(1, pending.pollTimeouts(System.nanoTime() + 1));
+        assertEquals(List.of(answered), replied);
+        assertEquals(List.of(expiring), timedOut);
+        assertFalse(pending.complete(expiring, null));   // late reply
+        assertFalse(pending.hasOutstanding());
+    }
+
+    @Test
+    public void testSlotsAreReused() {
+        PendingReplies pending = new PendingReplies(2);
+        for (int i = 0; i < 100; i++) {
+            long id = pending.register(handler, TimeUnit.SECONDS.toNanos(10));
+            assertTrue(pending.complete(id, null));
+        }
+        assertEquals(100, replied.size());
+        for (int i = 0; i < 4; i++) {
+            pending.register(handler, TimeUnit.SECONDS.toNanos(10));
+        }
+        assertThrows(IllegalStateException.class, () -> pending.register(handler, 0));
+    }
+}
@@ -0,0 +1,31 @@
+package org.capeph.reactor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReactorAgentTest {
+
+    private static int[] split(int limit, int... weights) {
+        return ReactorAgent.split(limit, weights, Arrays.stream(weights).asLongStream().sum(), new int[weights.length]);
+    }
+
+    @Test
+    public void testSharesAddUpToLimit() {
+        assertArrayEquals(new int[] {6, 3, 1}, split(10, 6, 3, 1));
+        assertArrayEquals(new int[] {34, 33, 33}, split(100, 1, 1, 1));
+        assertArrayEquals(new int[] {9, 1}, split(10, 1000, 1));
+        for (int limit = 3; limit < 200; limit++) {
+            assertEquals(limit, Arrays.stream(split(limit, 8, 4, 1)).sum());
+        }
+    }
+
+    @Test
+    public void testEveryLaneIsPolled() {
+        assertArrayEquals(new int[] {1, 1, 1}, split(1, 100, 1, 1));
+        assertArrayEquals(new int[] {8, 1, 1}, split(10, 1_000_000, 1, 1));
+        assertArrayEquals(new int[] {64}, split(64, Integer.MAX_VALUE));
+    }
+}
@@ -3,15 +3,26 @@ package org.capeph.reactor;
 
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
+import org.capeph.config.Config;
+import org.capeph.config.Loader;
 import org.capeph.lookup.LookupService;
 import org.capeph.messages.DemoMessage;
 import org.capeph.pool.MessagePool;
+import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -30,9 +41,11 @@ class ReactorTest {
 
 
   //  @ReactorMessage
-    public static class TestMessage implements ReusableMessage {
+    public static class TestMessage implements CorrelatedMessage {
 
         private String content;
+        private long correlationId;
+        private int replyTo;
 
         @Override
         public void clear() {
@@ -46,6 +59,26 @@ class ReactorTest {
         public void setContent(String str) {
             content = str;
         }
+
+        @Override
+        public long getCorrelationId() {
+            return correlationId;
+        }
+
+        @Override
+        public void setCorrelationId(long correlationId) {
+            this.correlationId = correlationId;
+        }
+
+        @Override
+        public int getReplyTo() {
+            return replyTo;
+        }
+
+        @Override
+        public void setReplyTo(int replyTo) {
+            this.replyTo = replyTo;
+        }
     }
 
     @FunctionalInterface
@@ -128,10 +161,14 @@ class ReactorTest {
         }
     }
 
+    @BeforeAll
+    public static void startLookup() {
+        LookupService.main(new String[]{"lookup"});
+    }
+
     @Test
     public void testRegister() throws InterruptedException {
         ICodec testCodec = new TestCodec();
-        LookupService.main(new String[]{"lookup"});
         Reactor reactora = new Reactor("reactora", "localhost:10000", false, testCodec);
         Reactor reactorb = new Reactor("reactorb", "localhost:10010", false, testCodec);
         final String[] received = {""};
@@ -142,7 +179,362 @@ class ReactorTest {
         Thread.sleep(1000);
         assertEquals("hello", received[0]);
 
+        TargetHandle target = reactora.resolveAsync("reactorb").join();
+        assertSame(target, reactora.resolve("reactorb"));
+        assertEquals("reactorb", target.getName());
+        assertEquals("aeron:ipc", target.publication().channel());   // same media driver
+        msg.setContent("resolved");
+        assertTrue(reactora.signal(msg, target));
+        Thread.sleep(1000);
+        assertEquals("resolved", received[0]);
+        assertThrows(CompletionException.class, () -> reactora.resolveAsync("nosuchreactor").join());
+
+    }
+
+    @Test
+    public void testRequestReply() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor requester = new Reactor("requester", "localhost:10020", false, testCodec);
+        Reactor responder = new Reactor("responder", "localhost:10030", false, testCodec);
+        responder.react(TestMessage.class, msg -> {
+            TestMessage reply = new TestMessage();
+            reply.setContent(((TestMessage) msg).getContent() + " world");
+            responder.reply((TestMessage) msg, reply);
+        });
+        requester.expectReplies(TestMessage.class);
+        CountDownLatch done = new CountDownLatch(2);
+        final String[] replies = {"", ""};
+        final long[] timedOut = {0};
+        ReplyHandler handler = new ReplyHandler() {
+            @Override
+            public void onReply(long correlationId, ReusableMessage reply) {
+                replies[(int) correlationId % 2] = ((TestMessage) reply).getContent();
+                done.countDown();
+            }
+
+            @Override
+            public void onTimeout(long correlationId) {
+                timedOut[0] = correlationId;
+            }
+        };
+        TestMessage msg = new TestMessage();
+        msg.setContent("hello");
+        long first = requester.request(msg, "responder", handler, 5, TimeUnit.SECONDS);
+        msg.setContent("goodbye");
+        long second = requester.request(msg, "responder", handler, 5, TimeUnit.SECONDS);
+        assertNotEquals(first, second);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("hello world", replies[(int) first % 2]);
+        assertEquals("goodbye world", replies[(int) second % 2]);
+        assertEquals(0, timedOut[0]);
+    }
+
+    @Test
+    public void testLargeMessage() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor sender = new Reactor("largesender", "localhost:10060", false, testCodec);
+        Reactor receiver = new Reactor("largereceiver", "localhost:10070", false, testCodec);
+        CountDownLatch done = new CountDownLatch(2);
+        final String[] received = {""};
+        receiver.react(TestMessage.class, msg -> {
+            received[0] = ((TestMessage) msg).getContent();
+            done.countDown();
+        });
+        String large = "x".repeat(6000);   // larger than a frame, so the message is fragmented
+        TestMessage msg = new TestMessage();
+        msg.setContent(large);
+        assertTrue(sender.signal(msg, "largereceiver"));
+        msg.setContent("small");
+        assertTrue(sender.signal(msg, "largereceiver"));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("small", received[0]);
+        msg.setContent(large);
+        CountDownLatch again = new CountDownLatch(1);
+        receiver.react(TestMessage.class, m -> {
+            if (large.equals(((TestMessage) m).getContent())) {
+                again.countDown();
+            }
+        });
+        assertTrue(sender.signal(msg, "largereceiver"));
+        assertTrue(again.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBatch() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor sender = new Reactor("batchsender", "localhost:10080", false, testCodec);
+        Reactor receiver = new Reactor("batchreceiver", "localhost:10090", false, testCodec);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(5);
+        receiver.react(TestMessage.class, msg -> {
+            received.add(((TestMessage) msg).getContent());
+            done.countDown();
+        });
+        List<TestMessage> messages = new ArrayList<>();
+        for (String content : List.of("one", "two", "three")) {
+            TestMessage msg = new TestMessage();
+            msg.setContent(content);
+            messages.add(msg);
+        }
+        TargetHandle target = sender.resolve("batchreceiver");
+        assertTrue(sender.signalBatch(messages, target));
+        MessageBatch batch = sender.newBatch();
+        TestMessage msg = new TestMessage();
+        msg.setContent("four");
+        batch.add(msg);
+        msg.setContent("five");   // encoded on add, so the message can be reused
+        batch.add(msg);
+        assertEquals(2, batch.size());
+        assertTrue(sender.signal(batch, target));
+        assertTrue(batch.isEmpty());
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of("one", "two", "three", "four", "five"), received);
+    }
+
+    @Test
+    public void testGroup() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor sender = new Reactor("groupsender", "localhost:10100", false, testCodec);
+        Reactor first = new Reactor("groupfirst", "localhost:10110", false, testCodec);
+        Reactor second = new Reactor("groupsecond", "localhost:10120", false, testCodec);
+        sender.createGroup("prices", "localhost:10130", true);
+        CountDownLatch firstReceived = new CountDownLatch(1);
+        CountDownLatch secondReceived = new CountDownLatch(1);
+        first.react(TestMessage.class, msg -> firstReceived.countDown());
+        second.react(TestMessage.class, msg -> secondReceived.countDown());
+        first.joinGroup("prices");
+        second.joinGroup("prices");
+        TargetHandle group = sender.resolveGroup("prices");
+        assertSame(group, sender.resolveGroup("prices"));
+        TestMessage msg = new TestMessage();
+        msg.setContent("update");
+        // messages sent before a member has connected are not delivered to it
+        for (int i = 0; i < 100 && (firstReceived.getCount() > 0 || secondReceived.getCount() > 0); i++) {
+            if (group.isConnected()) {
+                assertTrue(sender.signal(msg, group));
+            }
+            Thread.sleep(100);
+        }
+        assertEquals(0, firstReceived.getCount());
+        assertEquals(0, secondReceived.getCount());
+    }
+
+    @Test
+    public void testLocalDelivery() throws InterruptedException {
+        Reactor sender = new Reactor("localsender", "localhost:10140", false, null);
+        Reactor receiver = new Reactor("localreceiver", "localhost:10150", false, null);
+        CountDownLatch done = new CountDownLatch(1);
+        final DemoMessage[] received = {null};
+        final String[] content = {""};
+        receiver.react(DemoMessage.class, m -> {
+            DemoMessage demo = (DemoMessage) m;
+            received[0] = demo;
+            content[0] = demo.getStringField() + "," + demo.getStringBufferField() + "," + demo.getIntField();
+            done.countDown();
+        });
+        TargetHandle target = sender.resolve("localreceiver");
+        assertSame(receiver, target.local());
+        DemoMessage msg = new DemoMessage();
+        msg.setStringField("local");
+        msg.setStringBufferField("copied");
+        msg.setIntField(7);
+        assertTrue(sender.signal(msg, target));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("local,copied,7", content[0]);
+        assertNotSame(msg, received[0]);   // the receiver gets a copy from its own pool
+    }
+
+    @Test
+    public void testLocalDeliveryFromManyThreads() throws InterruptedException {
+        Reactor sender = new Reactor("localstresssender", "localhost:10200", false, null);
+        Reactor receiver = new Reactor("localstressreceiver", "localhost:10210", false, null);
+        int threads = 4;
+        int messages = 20000;
+        CountDownLatch done = new CountDownLatch(threads * messages);
+        receiver.react(DemoMessage.class, m -> done.countDown());
+        TargetHandle target = sender.resolve("localstressreceiver");
+        assertSame(receiver, target.local());
+        // every sender thread takes copies from the pool of the receiver at the same time
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            senders.add(Thread.ofPlatform().start(() -> {
+                DemoMessage msg = new DemoMessage();
+                msg.setStringField("thread" + id);
+                for (int i = 0; i < messages; i++) {
+                    msg.setIntField(i);
+                    assertTrue(sender.signal(msg, target));
+                }
+            }));
+        }
+        for (Thread thread : senders) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS), done.getCount() + " messages missing");
+    }
+
+    @Test
+    public void testCompositeAgentAboveRingCapacity() throws InterruptedException {
+        // the messages must arrive through the receive path, not as local copies
+        System.setProperty(Config.compositeAgent.getPath(), "true");
+        System.setProperty(Config.localDelivery.getPath(), "false");
+        Loader.reloadConfig();
+        Reactor receiver;
+        try {
+            receiver = new Reactor("compositereceiver", "localhost:10230", false, null);
+        } finally {
+            System.clearProperty(Config.compositeAgent.getPath());
+            System.clearProperty(Config.localDelivery.getPath());
+            Loader.reloadConfig();
+        }
+        Reactor sender = new Reactor("compositesender", "localhost:10220", false, null);
+        // many times the ring and the pool, received and handled by the same thread
+        int messages = 16 << Config.maxPoolSize.get();
+        CountDownLatch done = new CountDownLatch(messages);
+        receiver.react(DemoMessage.class, m -> {
+            if (((DemoMessage) m).getIntField() % 256 == 0) {
+                LockSupport.parkNanos(1_000_000);   // let a backlog build up in the image
+            }
+            done.countDown();
+        });
+        TargetHandle target = sender.resolve("compositereceiver");
+        DemoMessage msg = new DemoMessage();
+        msg.setStringField("composite");
+        msg.setStringBufferField("");
+        for (int i = 0; i < messages; i++) {
+            msg.setIntField(i);
+            assertTrue(sender.signal(msg, target));
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS), done.getCount() + " messages missing");
+    }
+
+    @Test
+    public void testSignalAsync() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor sender = new Reactor("asyncsender", "localhost:10160", false, testCodec);
+        Reactor receiver = new Reactor("asyncreceiver", "localhost:10170", false, testCodec);
+        int messages = 100;
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(messages);
+        receiver.react(TestMessage.class, msg -> {
+            received.add(((TestMessage) msg).getContent());
+            done.countDown();
+        });
+        TargetHandle target = sender.resolve("asyncreceiver");
+        TestMessage msg = new TestMessage();
+        for (int i = 0; i < messages; i++) {
+            msg.setContent("async" + i);
+            assertEquals(SendResult.OK, sender.signalAsync(msg, target));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals("async0", received.getFirst());
+        assertEquals("async" + (messages - 1), received.getLast());
+        msg.setContent("x".repeat(10000));   // more than the 8KB a 64KB queue takes
+        assertEquals(SendResult.FAILED, sender.signalAsync(msg, target));
+        assertEquals(1, sender.sendCounters().oversized.get());
+
+        // nobody subscribes to this stream, so the send gives up after the timeout
+        TargetHandle nobody = new TargetHandle("nobody", 999, sender.aeron.addExclusivePublication("aeron:ipc", 999));
+        assertEquals(SendResult.NOT_CONNECTED, sender.trySignal(msg, nobody, 100, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void testLanes() throws InterruptedException {
+        ICodec testCodec = new TestCodec();
+        Reactor sender = new Reactor("lanesender", "localhost:10180", false, testCodec);
+        Reactor receiver = new Reactor("lanereceiver", "localhost:10190", false, testCodec,
+                Reactor.parseLanes("urgent:4"));
+        int messages = 10;
+        CountDownLatch done = new CountDownLatch(messages);
+        receiver.react(TestMessage.class, msg -> done.countDown());
+        TargetHandle target = sender.resolve("lanereceiver");
+        assertNotSame(target.publication(), target.publication("urgent"));
+        assertSame(target.publication(), target.publication("missing"));
+        sender.sendOnLane(TestMessage.class, "urgent");
+        TestMessage msg = new TestMessage();
+        for (int i = 0; i < messages; i++) {
+            msg.setContent("lane" + i);
+            assertTrue(sender.signal(msg, target));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Map.of("a", 2, "b", 1), Reactor.parseLanes("a:2, b"));
+        assertThrows(IllegalArgumentException.class, () -> Reactor.parseLanes("a:0"));
+    }
+
+    @Test
+    public void testOversizedMessage() throws InterruptedException {
+        // 64KB terms take messages of at most 8KB, and a local copy would not be limited
+        System.setProperty(Config.termLength.getPath(), "65536");
+        System.setProperty(Config.localDelivery.getPath(), "false");
+        Loader.reloadConfig();
+        ICodec testCodec = new TestCodec();
+        Reactor sender;
+        Reactor receiver;
+        TargetHandle target;
+        try {
+            sender = new Reactor("oversizedsender", "localhost:10240", false, testCodec);
+            receiver = new Reactor("oversizedreceiver", "localhost:10250", false, testCodec);
+            target = sender.resolve("oversizedreceiver");
+        } finally {
+            System.clearProperty(Config.termLength.getPath());
+            System.clearProperty(Config.localDelivery.getPath());
+            Loader.reloadConfig();
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        receiver.react(TestMessage.class, m -> done.countDown());
+        TestMessage msg = new TestMessage();
+        msg.setContent("x".repeat(10000));
+        assertEquals(SendResult.FAILED, sender.trySignal(msg, target));
+        assertEquals(1, sender.sendCounters().oversized.get());
+        msg.setContent("x".repeat(6000));   // fragmented, but within the limit
+        assertEquals(SendResult.OK, sender.trySignal(msg, target));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, sender.sendCounters().oversized.get());
+        // two messages within the limit make a batch above it
+        MessageBatch batch = sender.newBatch();
+        batch.add(msg);
+        batch.add(msg);
+        assertFalse(sender.signal(batch, target));
+        assertEquals(2, sender.sendCounters().oversized.get());
+        assertFalse(sender.signalBatch(List.of(msg, msg), target));
+        assertEquals(3, sender.sendCounters().oversized.get());
+    }
+
+    @Test
+    public void testSignalDoesNotAllocate() throws InterruptedException {
+        // measure the publication path, not the copy handed to a reactor in the same process
+        System.setProperty(Config.localDelivery.getPath(), "false");
+        Loader.reloadConfig();
+        Reactor sender;
+        Reactor receiver;
+        try {
+            sender = new Reactor("allocsender", "localhost:10040", false, null);
+            receiver = new Reactor("allocreceiver", "localhost:10050", false, null);
+        } finally {
+            System.clearProperty(Config.localDelivery.getPath());
+            Loader.reloadConfig();
+        }
+        CountDownLatch received = new CountDownLatch(1);
+        receiver.react(DemoMessage.class, m -> received.countDown());
+        DemoMessage msg = new DemoMessage();
+        msg.setStringField("allocation free");
+        msg.setStringBufferField("buffered");
+        msg.setIntField(42);
+        int messages = 50000;
+        TargetHandle target = sender.resolve("allocreceiver");
+        for (int i = 0; i < messages; i++) {   // warm up, creates the buffer claim
+            assertTrue(sender.signal(msg, target));
+        }
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < messages; i++) {
+            sender.signal(msg, target);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // one small object per message would be 16 bytes * messages, leave room for one-off allocations of the jvm
+        assertTrue(allocated < 16 * 1024, "allocated " + allocated + " bytes for " + messages + " messages");
+    }
 
-}
\ No newline at end of file
+}
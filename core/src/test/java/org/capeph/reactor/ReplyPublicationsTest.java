@@ -0,0 +1,51 @@
+package org.capeph.reactor;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplyPublicationsTest {
+
+    private final Executor resolver = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Test
+    public void testLookedUpOnce() throws InterruptedException {
+        AtomicInteger lookups = new AtomicInteger();
+        ReplyPublications publications = new ReplyPublications(stream -> {
+            lookups.incrementAndGet();
+            return null;
+        }, resolver);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = Thread.ofPlatform().start(() -> {
+                for (int stream = 1; stream <= 100; stream++) {
+                    publications.prepare(stream);
+                    publications.get(stream);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, lookups.get());
+    }
+
+    @Test
+    public void testFailedLookupIsRetried() {
+        AtomicInteger lookups = new AtomicInteger();
+        ReplyPublications publications = new ReplyPublications(stream -> {
+            if (lookups.incrementAndGet() == 1) {
+                throw new IllegalStateException("lookup endpoint returned 404");
+            }
+            return null;
+        }, resolver);
+        assertThrows(CompletionException.class, () -> publications.get(7));
+        assertNull(publications.get(7));
+        assertEquals(2, lookups.get());
+    }
+}
@@ -0,0 +1,128 @@
+package org.capeph.reactor;
+
+import org.capeph.config.Config;
+import org.capeph.config.Loader;
+import org.capeph.reactor.PaddedRingBuffer.ProducerMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    private void fillAndEmpty(PaddedRingBuffer<Integer> buffer) {
+        assertTrue(buffer.isEmpty());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < buffer.capacity(); i++) {
+                assertTrue(buffer.offer(i));
+            }
+            assertTrue(buffer.isFull());
+            assertFalse(buffer.offer(-1));
+            for (int i = 0; i < buffer.capacity(); i++) {
+                assertEquals(i, buffer.poll());
+            }
+            assertNull(buffer.poll());
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSingleProducer() {
+        fillAndEmpty(PaddedRingBuffer.create(ProducerMode.SINGLE, 3));
+    }
+
+    @Test
+    public void testMultiProducer() {
+        fillAndEmpty(PaddedRingBuffer.create(ProducerMode.MULTI, 3));
+    }
+
+    @Test
+    public void testConfiguredProducerMode() {
+        System.setProperty(Config.dispatcherProducers.getPath(), "single");
+        Loader.reloadConfig();
+        try {
+            assertEquals(ProducerMode.SINGLE, ProducerMode.configured());
+            System.setProperty(Config.dispatcherProducers.getPath(), " ");   // missing from the file
+            Loader.reloadConfig();
+            assertEquals(ProducerMode.MULTI, ProducerMode.configured());
+        } finally {
+            System.clearProperty(Config.dispatcherProducers.getPath());
+            Loader.reloadConfig();
+        }
+    }
+
+    @Test
+    public void testDrainBatch() {
+        PaddedRingBuffer<Integer> buffer = PaddedRingBuffer.create(ProducerMode.SINGLE, 4);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, buffer.drain(drained::add, 4));
+        assertEquals(List.of(0, 1, 2, 3), drained);
+        assertEquals(6, buffer.size());
+        assertEquals(6, buffer.drain(drained::add, 100));
+        assertEquals(0, buffer.drain(drained::add, 100));
+        assertEquals(10, drained.size());
+        assertTrue(buffer.offer(10));
+        assertEquals(10, buffer.poll());
+    }
+
+    @Test
+    public void testDrainFailingHandler() {
+        PaddedRingBuffer<Integer> buffer = PaddedRingBuffer.create(ProducerMode.MULTI, 4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertThrows(IllegalStateException.class, () -> buffer.drain(i -> {
+            if (i == 1) {
+                throw new IllegalStateException("failed");
+            }
+        }, 4));
+        assertEquals(2, buffer.size());   // the failing element is consumed
+        assertEquals(2, buffer.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        int producers = 4;
+        int perProducer = 100000;
+        PaddedRingBuffer<Integer> buffer = PaddedRingBuffer.create(ProducerMode.MULTI, 6);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.yield();   // let the consumer run when there are fewer cpus than threads
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < producers * perProducer && System.currentTimeMillis() < deadline) {
+            Integer value = buffer.poll();
+            if (value != null) {
+                int producer = value / perProducer;
+                assertTrue(value % perProducer > last[producer], "messages from one producer out of order");
+                last[producer] = value % perProducer;
+                received++;
+            } else {
+                Thread.yield();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(producers * perProducer, received);
+        assertNull(buffer.poll());
+    }
+}
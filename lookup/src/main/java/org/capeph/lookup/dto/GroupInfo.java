@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.lookup.dto;
+
+import io.swagger.v3.oas.annotations.Parameter;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
+import lombok.*;
+import org.capeph.lookup.store.Store;
+
+/**
+ * A named group of reactors sharing one channel. A message sent to the group is encoded once
+ * and the media driver delivers it to every member.
+ */
+@Getter
+@Setter
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class GroupInfo {
+
+    public static final String MULTICAST = "multicast";
+    public static final String MDC = "mdc";
+
+    @Parameter(description = "Name of the group")
+    private String name;
+
+    @Parameter(description = "Multicast address, or the control address of the sender for mdc")
+    @Pattern(regexp = ReactorInfo.ValidHostPortRegex, message = "Must be a valid host name or ip")
+    private String endpoint;
+
+    @Parameter(description = "Id of the messaging channel")
+    @Min(value = 0, message = "Channel can not be negative")
+    private int streamid;
+
+    @Parameter(description = "How messages are fanned out, multicast or mdc (multi destination cast)")
+    @Pattern(regexp = MULTICAST + "|" + MDC, message = "Must be multicast or mdc")
+    private String mode;
+
+    // if channel is 0 set it to the next available channel, shared with the reactors
+    public void updateChannel(Store serviceStore) {
+        if (streamid == 0) {
+            streamid = serviceStore.nextChannel();
+        }
+    }
+}
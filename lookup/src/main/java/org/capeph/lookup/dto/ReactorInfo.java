@@ -9,6 +9,8 @@ import jakarta.validation.constraints.Pattern;
 import lombok.*;
 import org.capeph.lookup.store.Store;
 
+import java.util.Map;
+
 @Getter
 @Setter
 @ToString
@@ -40,16 +42,29 @@ public class ReactorInfo {
     @Min(value = 0, message = "Channel can not be negative")
     private int streamid;
 
+    @Parameter(description = "Stream id of each extra lane of the reactor, by lane name")
+    private Map<String, Integer> lanes;
+
+    @Parameter(description = "Name of the machine the reactor is running on")
+    private String host;
+
+    @Parameter(description = "Directory of the media driver used by the reactor")
+    private String driver;
+
+    /**
+     * @param other another reactor
+     * @return true if both reactors use the same media driver, so they can use ipc
+     */
+    public boolean sharesDriverWith(ReactorInfo other) {
+        return host != null && driver != null && host.equals(other.host) && driver.equals(other.driver);
+    }
+
     // if channel is 0 set it to the next available channel instead.
     // this can cause conflicts, so would recommend to either use
     // all preset channels, or all automatic assigned.
     public void updateChannel(Store serviceStore) {
         if (streamid == 0) {
-            streamid = serviceStore.getChannels()
-                    .stream()
-                    .sorted()
-                    .reduce(1,
-                            (a, e) -> a < e ? a : e + 1);
+            streamid = serviceStore.nextChannel();
         }
     }
 
@@ -4,6 +4,7 @@
 package org.capeph.lookup.rest;
 
 import jakarta.validation.Valid;
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 import org.capeph.lookup.store.Store;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,11 +21,25 @@ public class LookupController {
 
     @PostMapping("")
     public ResponseEntity<ReactorInfo> postMapping(@Valid @RequestBody ReactorInfo dto) {
-        dto.updateChannel(serviceStore);
-        serviceStore.add(dto);
+        serviceStore.add(dto);   // assigns the channel
         return ResponseEntity.ok().body(dto);
     }
 
+    @PostMapping("/group")
+    public ResponseEntity<GroupInfo> postGroupMapping(@Valid @RequestBody GroupInfo dto) {
+        return ResponseEntity.ok().body(serviceStore.addGroup(dto));
+    }
+
+    @GetMapping("/group/{name}")
+    @ResponseBody
+    public GroupInfo getGroupMapping(@PathVariable String name) {
+        GroupInfo dto = serviceStore.getGroup(name);
+        if (dto == null) {
+            throw new IllegalArgumentException("group " + name + " not found");
+        }
+        return dto;
+    }
+
     @GetMapping("/{name}")
     @ResponseBody
     public ReactorInfo getMapping(@PathVariable String name) {
@@ -35,4 +50,14 @@ public class LookupController {
         return dto;
     }
 
+    @GetMapping("/stream/{streamid}")
+    @ResponseBody
+    public ReactorInfo getStreamMapping(@PathVariable int streamid) {
+        ReactorInfo dto = serviceStore.getByStream(streamid);
+        if (dto == null) {
+            throw new IllegalArgumentException("stream " + streamid + " not found");
+        }
+        return dto;
+    }
+
 }
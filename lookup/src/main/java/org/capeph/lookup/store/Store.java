@@ -4,11 +4,14 @@
 package org.capeph.lookup.store;
 
 import lombok.Getter;
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 import org.springframework.stereotype.Component;
 
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -17,11 +20,18 @@ import java.util.concurrent.ConcurrentSkipListSet;
 public class Store {
 
     private final Map<String, ReactorInfo> reactors = new ConcurrentHashMap<>();
+    private final Map<Integer, ReactorInfo> streams = new ConcurrentHashMap<>();
+    private final Map<String, GroupInfo> groups = new ConcurrentHashMap<>();
 
     @Getter
     private final Set<Integer> channels = new HashSet<>();
 
-    public void add(ReactorInfo dto) {
+    /**
+     * add a reactor and its lanes, nothing is stored if a name or channel is already taken
+     * @param dto the reactor, a channel is assigned if it has none
+     */
+    public synchronized void add(ReactorInfo dto) {
+        dto.updateChannel(this);
         String name = dto.getName().toLowerCase();
         int channel = dto.getStreamid();
         if (reactors.containsKey(name)) {
@@ -30,12 +40,80 @@ public class Store {
         if (channels.contains(channel)) {
             throw  new IllegalArgumentException("Another reactor with channel " + channel + " already exists");
         }
+        Map<String, Integer> lanes = laneChannels(dto, channel);
         reactors.put(name, dto);
+        streams.put(channel, dto);
         channels.add(channel);
+        for (Map.Entry<String, Integer> lane : lanes.entrySet()) {
+            dto.getLanes().put(lane.getKey(), lane.getValue());
+            streams.put(lane.getValue(), dto);
+            channels.add(lane.getValue());
+        }
+    }
+
+    // every lane gets a stream of its own, looked up as the reactor
+    private Map<String, Integer> laneChannels(ReactorInfo dto, int channel) {
+        Map<String, Integer> assigned = new LinkedHashMap<>();
+        if (dto.getLanes() == null) {
+            return assigned;
+        }
+        Set<Integer> taken = new HashSet<>(channels);
+        taken.add(channel);
+        for (Map.Entry<String, Integer> lane : dto.getLanes().entrySet()) {
+            int laneChannel = lane.getValue() == null || lane.getValue() == 0 ? lowestFree(taken) : lane.getValue();
+            if (!taken.add(laneChannel)) {
+                throw new IllegalArgumentException("Another reactor with channel " + laneChannel + " already exists");
+            }
+            assigned.put(lane.getKey(), laneChannel);
+        }
+        return assigned;
+    }
+
+    /**
+     * add a group, adding a group that already exists with the same settings returns the existing group
+     * @param dto the group
+     * @return the registered group
+     */
+    public synchronized GroupInfo addGroup(GroupInfo dto) {
+        String name = dto.getName().toLowerCase();
+        GroupInfo existing = groups.get(name);
+        if (existing != null) {
+            if (!Objects.equals(existing.getEndpoint(), dto.getEndpoint()) || !Objects.equals(existing.getMode(), dto.getMode())) {
+                throw new IllegalArgumentException("Group with name " + name + " already exists");
+            }
+            return existing;
+        }
+        dto.updateChannel(this);
+        if (channels.contains(dto.getStreamid())) {
+            throw new IllegalArgumentException("Another reactor with channel " + dto.getStreamid() + " already exists");
+        }
+        groups.put(name, dto);
+        channels.add(dto.getStreamid());
+        return dto;
+    }
+
+    public GroupInfo getGroup(String name) {
+        return groups.get(name.toLowerCase());
+    }
+
+    // the lowest channel not in use
+    public synchronized int nextChannel() {
+        return lowestFree(channels);
+    }
+
+    private static int lowestFree(Set<Integer> taken) {
+        return taken.stream()
+                .sorted()
+                .reduce(1,
+                        (a, e) -> a < e ? a : e + 1);
     }
 
     public ReactorInfo get(String name) {
         return reactors.get(name);
     }
 
+    public ReactorInfo getByStream(int streamid) {
+        return streams.get(streamid);
+    }
+
 }
@@ -1,6 +1,7 @@
 package org.capeph.lookup.rest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -68,6 +69,10 @@ class LookupControllerTest {
                 .andExpect(jsonPath("name").exists())
                 .andExpect(jsonPath("name").value("two"))
                 .andExpect(jsonPath("streamid").value(2));
+        mvc.perform(
+                MockMvcRequestBuilders.get("/lookup/stream/2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("name").value("two"));
     }
 
 
@@ -101,4 +106,33 @@ class LookupControllerTest {
                         .accept(MediaType.APPLICATION_JSON))
                 .andExpect(status().is(HttpStatus.BAD_REQUEST.value()));
     }
-}
\ No newline at end of file
+
+    @Test
+    // test to store a group and look it up
+    public void testPutGetGroup() throws Exception {
+        GroupInfo body = GroupInfo.builder()
+                .name("group")
+                .endpoint("224.0.1.1:9000")
+                .streamid(20)
+                .mode(GroupInfo.MULTICAST)
+                .build();
+        mvc.perform(
+                MockMvcRequestBuilders.post("/lookup/group")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(new ObjectMapper().writeValueAsString(body))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("streamid").value(20));
+        mvc.perform(
+                MockMvcRequestBuilders.get("/lookup/group/group"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("endpoint").value("224.0.1.1:9000"))
+                .andExpect(jsonPath("mode").value(GroupInfo.MULTICAST));
+        body.setMode("broadcast");
+        mvc.perform(MockMvcRequestBuilders.post("/lookup/group")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(new ObjectMapper().writeValueAsString(body))
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().is(HttpStatus.BAD_REQUEST.value()));
+    }
+}
@@ -1,8 +1,14 @@
 package org.capeph.lookup.store;
 
+import org.capeph.lookup.dto.GroupInfo;
 import org.capeph.lookup.dto.ReactorInfo;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class StoreTest {
@@ -64,4 +70,86 @@ class StoreTest {
         assertEquals(2, store.get("second").getStreamid());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testGetByStream() {
+        Store store = new Store();
+        add(store, getDto("first", 3));
+        add(store, getDto("second", 0));
+        assertEquals("first", store.getByStream(3).getName());
+        assertEquals("second", store.getByStream(1).getName());
+        assertNull(store.getByStream(2));
+    }
+
+    @Test
+    public void testAddGroup() {
+        Store store = new Store();
+        add(store, getDto("first", 1));
+        GroupInfo group = store.addGroup(new GroupInfo("Prices", "localhost:20000", 0, GroupInfo.MDC));
+        assertEquals(2, group.getStreamid());
+        assertSame(group, store.addGroup(new GroupInfo("prices", "localhost:20000", 0, GroupInfo.MDC)));
+        assertSame(group, store.getGroup("prices"));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.addGroup(new GroupInfo("prices", "224.0.1.1:20000", 0, GroupInfo.MULTICAST)));
+        add(store, getDto("second", 0));
+        assertEquals(3, store.get("second").getStreamid());
+    }
+
+    @Test
+    public void testAddLanes() {
+        Store store = new Store();
+        add(store, getDto("first", 1));
+        ReactorInfo dto = getDto("second", 0);
+        dto.setLanes(new LinkedHashMap<>(Map.of("control", 0)));
+        add(store, dto);
+        assertEquals(2, store.get("second").getStreamid());
+        assertEquals(3, store.get("second").getLanes().get("control"));
+        assertEquals("second", store.getByStream(3).getName());
+        add(store, getDto("third", 0));
+        assertEquals(4, store.get("third").getStreamid());
+    }
+
+    @Test
+    public void testLaneConflictStoresNothing() {
+        Store store = new Store();
+        add(store, getDto("first", 1));
+        ReactorInfo dto = getDto("second", 0);
+        Map<String, Integer> lanes = new LinkedHashMap<>();
+        lanes.put("control", 0);
+        lanes.put("bulk", 1);
+        dto.setLanes(lanes);
+        assertThrows(IllegalArgumentException.class, () -> store.add(dto));
+        assertNull(store.get("second"));
+        assertNull(store.getByStream(2));
+        assertEquals(0, dto.getLanes().get("control"));
+        add(store, getDto("third", 0));
+        assertEquals(2, store.get("third").getStreamid());
+    }
+
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        Store store = new Store();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 50; i++) {
+                    ReactorInfo dto = getDto("reactor-" + thread + "-" + i, 0);
+                    dto.setLanes(new LinkedHashMap<>(Map.of("control", 0)));
+                    store.add(dto);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Integer> streams = new HashSet<>();
+        for (int t = 0; t < threads.length; t++) {
+            for (int i = 0; i < 50; i++) {
+                ReactorInfo dto = store.get("reactor-" + t + "-" + i);
+                assertTrue(streams.add(dto.getStreamid()));
+                assertTrue(streams.add(dto.getLanes().get("control")));
+            }
+        }
+        assertEquals(800, streams.size());
+    }
+}
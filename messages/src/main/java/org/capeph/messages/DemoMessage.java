@@ -3,6 +3,7 @@
  */
 package org.capeph.messages;
 
+import org.capeph.annotations.PartitionKey;
 import org.capeph.annotations.ReactorMessage;
 import org.capeph.reactor.ReusableMessage;
 
@@ -13,6 +14,7 @@ public class DemoMessage implements ReusableMessage {
 
     private final StringBuffer stringBufferField = new StringBuffer();
 
+    @PartitionKey
     private int intField;
 
     private boolean boolField;
@@ -1,5 +1,7 @@
 package org.capeph.pool;
 
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -17,6 +19,7 @@ public class GrowingObjectPool<T> implements ObjectPool<T> {
 
     private final Logger log = LogManager.getLogger(GrowingObjectPool.class);
     private final int maxSize;
+    private final ThreadLocal<IdleStrategy> idleStrategies;   // idle strategies keep state, one for each thread
 
     int size() {
         return elements;
@@ -26,8 +29,19 @@ public class GrowingObjectPool<T> implements ObjectPool<T> {
         return store.length;
     }
 
-    @SuppressWarnings("unchecked")
     public GrowingObjectPool(Supplier<T> factory, int sizeFactor, int maxSizeFactor) {
+        this(factory, sizeFactor, maxSizeFactor, YieldingIdleStrategy::new);
+    }
+
+    /**
+     * @param factory creates new objects
+     * @param sizeFactor initial size is 2^sizeFactor
+     * @param maxSizeFactor max size is 2^maxSizeFactor
+     * @param idleStrategies creates the idle strategy a thread uses while waiting for objects to be returned
+     */
+    @SuppressWarnings("unchecked")
+    public GrowingObjectPool(Supplier<T> factory, int sizeFactor, int maxSizeFactor, Supplier<IdleStrategy> idleStrategies) {
+        this.idleStrategies = ThreadLocal.withInitial(idleStrategies);
         int size = 1 << sizeFactor;
         maxSize = 1 << maxSizeFactor;
         mask = size - 1;
@@ -52,6 +66,8 @@ public class GrowingObjectPool<T> implements ObjectPool<T> {
 
     @Override
     public T get() {
+        IdleStrategy idleStrategy = idleStrategies.get();
+        idleStrategy.reset();
         while (emptyPool()) {
             // backoff to allow in flight objects to trickle in before allocating
             // with real life loads the backoff should move down
@@ -61,7 +77,7 @@ public class GrowingObjectPool<T> implements ObjectPool<T> {
                 }
                 return factory.get();
             }
-            Thread.yield();   // TODO: better backoff strategy?
+            idleStrategy.idle();
 
         }
         int idx = read.getAndIncrement() & mask;
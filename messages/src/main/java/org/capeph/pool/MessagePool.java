@@ -5,6 +5,7 @@ package org.capeph.pool;
 
 import org.agrona.collections.Object2ObjectHashMap;
 import org.capeph.config.Config;
+import org.capeph.reactor.IdleStrategies;
 
 import java.util.Map;
 import java.util.function.Consumer;
@@ -27,7 +28,8 @@ public class MessagePool {
                 throw new RuntimeException(e); // TODO: better exceptions
             }
         };
-        return new SmoothObjectPool<>(factory, Config.minPoolSize.get(), Config.maxPoolSize.get());
+        return new SmoothObjectPool<>(factory, Config.minPoolSize.get(), Config.maxPoolSize.get(),
+                IdleStrategies.factory(Config.poolIdleStrategy));
     }
 
     @SuppressWarnings("unchecked")
@@ -41,7 +43,13 @@ public class MessagePool {
     public void reuseMessage(Object message) {
         clearFunc.accept(message);
         ObjectPool<Object> pool = templates.get(message.getClass());
-        pool.put(message);
+        if (pool != null) {   // messages created outside of the pool are just dropped
+            pool.put(message);
+        }
+    }
+
+    public boolean hasMessagePool(Class<?> msgClazz) {
+        return templates.containsKey(msgClazz);
     }
 
     public void addMessagePool(Class<?> msgClazz) {
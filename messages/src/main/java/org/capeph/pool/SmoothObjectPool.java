@@ -1,74 +1,92 @@
 package org.capeph.pool;
 
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Supplier;
 
 public class SmoothObjectPool<T> implements ObjectPool<T> {
 
-    private static final boolean CHECK_ACCESS = false;
     private static final int RETRIES = 2;
     private final Supplier<T> factory;
     private volatile Store<T> readStore;
     private volatile Store<T> writeStore;
-    private volatile int elements;
+    private final AtomicInteger elements = new AtomicInteger(0);
 
     private final Logger log = LogManager.getLogger(SmoothObjectPool.class);
     private final int maxSize;
+    private final ThreadLocal<IdleStrategy> idleStrategies;   // idle strategies keep state, one for each thread
 
 
+    // objects can be returned and taken by several threads, so a slot is claimed before it is written
+    // or read, and the reader waits for a claimed slot to be filled
     private static class Store<T> {
-        private final T[] underlying;
+        private final AtomicReferenceArray<T> underlying;
         private final AtomicInteger read = new AtomicInteger(0);
         private final AtomicInteger write = new AtomicInteger(0);
         private final int mask;
 
-        @SuppressWarnings("unchecked")
         public Store(int size) {
             mask = size -1;
-            underlying = (T[]) new Object[size];
+            underlying = new AtomicReferenceArray<>(size);
         }
 
         public int size() {
-            return underlying.length;
+            return underlying.length();
         }
 
         public  T get() {
-            if (read.get() >= write.get()) {
-                return null;
-            }
-            int offset = read.getAndIncrement() & mask;
-            T result = underlying[offset];
-
-            if (CHECK_ACCESS){  // can be removed for better performance / less safety
-                if (result == null) {
-                    throw new IndexOutOfBoundsException("Trying to read non-initialized value");
+            int claimed;
+            do {   // only claim slots that a put has claimed before
+                claimed = read.get();
+                if (claimed >= write.get()) {
+                    return null;
                 }
-                underlying[offset] = null;
+            } while (!read.compareAndSet(claimed, claimed + 1));
+            int offset = claimed & mask;
+            T result = underlying.getAndSet(offset, null);
+            while (result == null) {   // claimed by put but not written yet
+                Thread.onSpinWait();
+                result = underlying.getAndSet(offset, null);
             }
-
             return result;
         }
 
-        private void put(T obj) {
-            int offset = write.get() & mask;
-
-            if (CHECK_ACCESS){  // can be removed for better performance
-                if (underlying[offset] != null) {
-                    throw new IndexOutOfBoundsException("Trying to overwite existing value");
+        // only claims a slot a get has claimed before, so a full store never makes the caller wait
+        private boolean put(T obj) {
+            int claimed;
+            do {
+                claimed = write.get();
+                if (claimed - read.get() >= underlying.length()) {
+                    return false;
                 }
+            } while (!write.compareAndSet(claimed, claimed + 1));
+            int offset = claimed & mask;
+            while (!underlying.compareAndSet(offset, null, obj)) {   // a reader has claimed the slot but not emptied it
+                Thread.onSpinWait();
             }
-
-            underlying[offset] = obj;
-            write.getAndIncrement();
+            return true;
         }
 
     }
 
     // TODO: sizefactor is off by 1!  10 should give 1024
     public SmoothObjectPool(Supplier<T> factory, int sizeFactor, int maxSizeFactor) {
+        this(factory, sizeFactor, maxSizeFactor, YieldingIdleStrategy::new);
+    }
+
+    /**
+     * @param factory creates new objects
+     * @param sizeFactor initial size is 2^sizeFactor
+     * @param maxSizeFactor max size is 2^maxSizeFactor
+     * @param idleStrategies creates the idle strategy a thread uses while waiting for objects to be returned
+     */
+    public SmoothObjectPool(Supplier<T> factory, int sizeFactor, int maxSizeFactor, Supplier<IdleStrategy> idleStrategies) {
+        this.idleStrategies = ThreadLocal.withInitial(idleStrategies);
         int size = 1 << sizeFactor;
         maxSize = 1 << maxSizeFactor;
         readStore = new Store<>(size);
@@ -78,7 +96,7 @@ public class SmoothObjectPool<T> implements ObjectPool<T> {
             for(int i = 0 ; i < size; i++) {
                 writeStore.put(factory.get());
             }
-            elements = size;
+            elements.set(size);
             log.info("Pool initialized, initial size: {}  max size: {}", size, maxSize);
         } catch (Exception e) {
             throw new IllegalArgumentException("Provided class can't be used in object pool: ", e);
@@ -95,22 +113,33 @@ public class SmoothObjectPool<T> implements ObjectPool<T> {
         }
     }
 
+    // move the readers to the newest store, under the same lock as grow so readers never move back
+    private void advance() {
+        synchronized (factory) {
+            readStore = writeStore;
+        }
+    }
+
     @Override
     public T get() {
         T result = readStore.get();
+        if (result != null) {
+            return result;
+        }
+        IdleStrategy idleStrategy = idleStrategies.get();
+        idleStrategy.reset();
         while (result == null) {
             if (writeStore != readStore) {
-                readStore = writeStore;
+                advance();
                 return get();
             }
             int writeSize = writeStore.size();
-            if (elements == writeSize && writeSize < maxSize) {
+            if (elements.get() == writeSize && writeSize < maxSize) {
                 grow(writeSize * 2);
             }
-            Thread.yield(); // TODO: better idle strategy
+            idleStrategy.idle();
             result = readStore.get();
-            if (result == null && elements < writeSize) { // room to grow?
-                elements++;
+            if (result == null && reserve(writeSize)) { // room to grow?
                 return factory.get();
             }
         }
@@ -121,30 +150,48 @@ public class SmoothObjectPool<T> implements ObjectPool<T> {
     public T get2() {
         T result = null;
         int retries = RETRIES;
+        IdleStrategy idleStrategy = idleStrategies.get();
+        idleStrategy.reset();
         while (result == null) {
             result = readStore.get();
             if (result == null && writeStore != readStore) {
-                readStore = writeStore;
+                advance();
                 result = get();
             }
             if (retries == 0) {
                 int writeSize = writeStore.size();
-                if (elements == writeSize && writeSize < maxSize) {
+                if (elements.get() == writeSize && writeSize < maxSize) {
                     grow(writeSize * 2);
                 }
-                if (elements < writeSize) { // room to grow?
-                    elements++;
+                if (reserve(writeSize)) { // room to grow?
                     result = factory.get();
                 }
             } else {
                 retries--;
-                Thread.yield();
+                idleStrategy.idle();
             }
         }
         return result;
     }
 
 
+    // count a new object, never more than the store can hold
+    private boolean reserve(int limit) {
+        int current;
+        do {
+            current = elements.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!elements.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * return an object to the pool. An object the pool did not hand out, such as a message created by the
+     * caller, is dropped when the pool is full and left to the garbage collector
+     * @param obj object to return
+     */
     @Override
     public void put(T obj) {
         writeStore.put(obj);
@@ -1,9 +1,12 @@
 package org.capeph.pool;
 
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 public class StaticObjectPool<T> implements ObjectPool<T> {
 
@@ -11,11 +14,22 @@ public class StaticObjectPool<T> implements ObjectPool<T> {
     private final T[] store;
     private final AtomicInteger read;
     private final AtomicInteger write;
+    private final ThreadLocal<IdleStrategy> idleStrategies;   // idle strategies keep state, one for each thread
 
     private final Logger log = LogManager.getLogger(StaticObjectPool.class);
 
-    @SuppressWarnings("unchecked")
     public StaticObjectPool(Class<T> clazz, int sizeFactor) {
+        this(clazz, sizeFactor, YieldingIdleStrategy::new);
+    }
+
+    /**
+     * @param clazz class of the objects, needs a public no argument constructor
+     * @param sizeFactor size is 2^sizeFactor
+     * @param idleStrategies creates the idle strategy a thread uses while waiting for objects to be returned
+     */
+    @SuppressWarnings("unchecked")
+    public StaticObjectPool(Class<T> clazz, int sizeFactor, Supplier<IdleStrategy> idleStrategies) {
+        this.idleStrategies = ThreadLocal.withInitial(idleStrategies);
         int size = 1 << sizeFactor;
         mask = size - 1;
         store = (T[]) new Object[size];
@@ -32,8 +46,10 @@ public class StaticObjectPool<T> implements ObjectPool<T> {
     }
 
     public T get() {
+        IdleStrategy idleStrategy = idleStrategies.get();
+        idleStrategy.reset();
         while (emptyPool()) {
-            Thread.yield();   // TODO: better backoff strategy?
+            idleStrategy.idle();
         }
         int idx = read.getAndIncrement() & mask;
         T result = store[idx];
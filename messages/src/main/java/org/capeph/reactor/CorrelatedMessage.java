@@ -0,0 +1,26 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Message that can be sent as a request or a reply. The correlation fields are carried in the
+ * header, so the codec does not encode them as message fields.
+ */
+public interface CorrelatedMessage extends ReusableMessage {
+
+    long getCorrelationId();
+
+    void setCorrelationId(long correlationId);
+
+    /**
+     * @return stream of the requesting reactor, {@link Header#REPLY} for a reply, or 0 if not a request
+     */
+    int getReplyTo();
+
+    void setReplyTo(int replyTo);
+
+    default boolean isReply() {
+        return getReplyTo() == Header.REPLY;
+    }
+}
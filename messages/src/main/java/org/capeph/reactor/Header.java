@@ -6,10 +6,30 @@ package org.capeph.reactor;
 import org.agrona.DirectBuffer;
 import org.agrona.MutableDirectBuffer;
 
+/**
+ * Header written before every encoded message:
+ * message type (int), codec version (int), correlation id (long) and reply to (int).
+ * The correlation id is 0 for messages that are not part of a request, replyTo is the stream
+ * of the requesting reactor for a request and {@link #REPLY} for a reply.
+ */
 public class Header {
 
+    /**
+     * replyTo value that marks a message as the reply to a request
+     */
+    public static final int REPLY = -1;
+
+    /**
+     * message type of a batch of messages, never used by a codec
+     */
+    public static final int BATCH = Integer.MIN_VALUE;
+
+    private static final int VERSION_OFFSET = Integer.BYTES;
+    private static final int CORRELATION_OFFSET = VERSION_OFFSET + Integer.BYTES;
+    private static final int REPLY_TO_OFFSET = CORRELATION_OFFSET + Long.BYTES;
+
     public static int length() {
-        return 2 * Integer.BYTES;
+        return REPLY_TO_OFFSET + Integer.BYTES;
     }
 
     /**
@@ -22,11 +42,58 @@ public class Header {
      */
     public static int writeHeader(MutableDirectBuffer buffer, int offset, int type, int version) {
         buffer.putInt(offset, type);
-        buffer.putInt(offset + Integer.BYTES, version);
+        buffer.putInt(offset + VERSION_OFFSET, version);
+        buffer.putLong(offset + CORRELATION_OFFSET, 0L);
+        buffer.putInt(offset + REPLY_TO_OFFSET, 0);
         return offset + length();
     }
 
+    /**
+     * set the request fields of an encoded header
+     * @param buffer target buffer
+     * @param offset start of the header
+     * @param correlationId id of the request, 0 if the message is not part of a request
+     * @param replyTo stream of the requesting reactor, or REPLY for a reply
+     */
+    public static void writeCorrelation(MutableDirectBuffer buffer, int offset, long correlationId, int replyTo) {
+        buffer.putLong(offset + CORRELATION_OFFSET, correlationId);
+        buffer.putInt(offset + REPLY_TO_OFFSET, replyTo);
+    }
+
+    /**
+     * copy the request fields of a message to an encoded header, does nothing for other messages
+     * @param buffer target buffer
+     * @param offset start of the header
+     * @param message the encoded message
+     */
+    public static void writeCorrelation(MutableDirectBuffer buffer, int offset, ReusableMessage message) {
+        if (message instanceof CorrelatedMessage correlated) {
+            writeCorrelation(buffer, offset, correlated.getCorrelationId(), correlated.getReplyTo());
+        }
+    }
+
+    /**
+     * copy the request fields of an encoded header to a decoded message, does nothing for other messages
+     * @param message the decoded message
+     * @param buffer source buffer
+     * @param offset start of the header
+     */
+    public static void readCorrelation(ReusableMessage message, DirectBuffer buffer, int offset) {
+        if (message instanceof CorrelatedMessage correlated) {
+            correlated.setCorrelationId(getCorrelationId(buffer, offset));
+            correlated.setReplyTo(getReplyTo(buffer, offset));
+        }
+    }
+
     public static int getMessageType(DirectBuffer buffer, int offset) {
         return buffer.getInt(offset);
     }
+
+    public static long getCorrelationId(DirectBuffer buffer, int offset) {
+        return buffer.getLong(offset + CORRELATION_OFFSET);
+    }
+
+    public static int getReplyTo(DirectBuffer buffer, int offset) {
+        return buffer.getInt(offset + REPLY_TO_OFFSET);
+    }
 }
@@ -19,4 +19,30 @@ public interface ICodec {
 
     ReusableMessage decode(DirectBuffer buffer, int offset, MessagePool messagePool);
 
+    /**
+     * copy a message without encoding it, used to hand messages to reactors in the same process
+     * @param msg message to copy
+     * @param messagePool pool to take the copy from
+     * @return the copy, or null if the codec can not copy the message
+     */
+    default ReusableMessage copy(ReusableMessage msg, MessagePool messagePool) {
+        return null;
+    }
+
+    /**
+     * @param msg message to route
+     * @return key picking the dispatcher partition, from the field annotated with PartitionKey if there is one
+     */
+    default int partitionKey(ReusableMessage msg) {
+        return msg.partitionKey();
+    }
+
+    /**
+     * @param messageClass type of message
+     * @return true if the codec makes the partition key of the type from an annotated field
+     */
+    default boolean hasPartitionKey(Class<? extends ReusableMessage> messageClass) {
+        return false;
+    }
+
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.concurrent.*;
+import org.capeph.config.StringValue;
+
+import java.util.function.Supplier;
+
+/**
+ * Builds idle strategies from a text description, used to make the wait points configurable.
+ * The description is the name of the strategy optionally followed by colon separated parameters:
+ * <ul>
+ *     <li>busy-spin</li>
+ *     <li>yielding</li>
+ *     <li>no-op</li>
+ *     <li>sleeping[:sleepNs]</li>
+ *     <li>sleeping-millis[:sleepMs]</li>
+ *     <li>backoff[:maxSpins:maxYields:minParkNs:maxParkNs]</li>
+ * </ul>
+ */
+public final class IdleStrategies {
+
+    private IdleStrategies() {
+    }
+
+    /**
+     * @param description description of the strategy
+     * @return a new instance of the described strategy
+     */
+    public static IdleStrategy create(String description) {
+        if (description == null || description.isBlank()) {
+            throw new IllegalArgumentException("Missing idle strategy");
+        }
+        String[] parts = description.trim().toLowerCase().split(":");
+        return switch (parts[0]) {
+            case "busy-spin" -> new BusySpinIdleStrategy();
+            case "yielding" -> new YieldingIdleStrategy();
+            case "no-op" -> new NoOpIdleStrategy();
+            case "sleeping" -> parts.length == 1 ? new SleepingIdleStrategy()
+                    : new SleepingIdleStrategy(parameter(parts, 1, description));
+            case "sleeping-millis" -> parts.length == 1 ? new SleepingMillisIdleStrategy()
+                    : new SleepingMillisIdleStrategy(parameter(parts, 1, description));
+            case "backoff" -> {
+                if (parts.length == 1) {
+                    yield new BackoffIdleStrategy();
+                }
+                if (parts.length != 5) {
+                    throw new IllegalArgumentException("backoff needs maxSpins:maxYields:minParkNs:maxParkNs, got " + description);
+                }
+                yield new BackoffIdleStrategy(
+                        parameter(parts, 1, description),
+                        parameter(parts, 2, description),
+                        parameter(parts, 3, description),
+                        parameter(parts, 4, description));
+            }
+            default -> throw new IllegalArgumentException("Unknown idle strategy " + description);
+        };
+    }
+
+    /**
+     * @param value config parameter holding the description
+     * @return a new instance of the configured strategy
+     */
+    public static IdleStrategy create(StringValue value) {
+        return create(value.get());
+    }
+
+    /**
+     * idle strategies keep state, so every thread needs its own instance
+     * @param value config parameter holding the description
+     * @return supplier of new instances of the configured strategy
+     */
+    public static Supplier<IdleStrategy> factory(StringValue value) {
+        String description = value.get();
+        create(description);   // fail early on bad config
+        return () -> create(description);
+    }
+
+    private static long parameter(String[] parts, int idx, String description) {
+        try {
+            return Long.parseLong(parts[idx].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad parameter in idle strategy " + description, e);
+        }
+    }
+}
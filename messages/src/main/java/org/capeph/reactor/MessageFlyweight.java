@@ -0,0 +1,26 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+import org.agrona.DirectBuffer;
+
+/**
+ * View over an encoded message that reads the fields directly from the buffer.
+ * Implementations are generated for every ReactorMessage.
+ */
+public interface MessageFlyweight {
+
+    /**
+     * @return the message type id written in the header
+     */
+    int messageType();
+
+    /**
+     * point the view at an encoded message
+     * @param buffer buffer holding the message
+     * @param offset start of the message header
+     * @param length length of the encoded message
+     */
+    void wrap(DirectBuffer buffer, int offset, int length);
+}
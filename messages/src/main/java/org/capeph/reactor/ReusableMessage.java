@@ -9,4 +9,14 @@ public interface ReusableMessage {
      * reset all the fields of the message
      */
     void clear();
+
+    /**
+     * key used to pick the dispatcher thread when a reactor runs several dispatcher partitions.
+     * Messages with the same key are always handled in order on the same thread.
+     * Generated messages get the key from the field annotated with PartitionKey instead
+     * @return the partition key, all messages share partition 0 by default
+     */
+    default int partitionKey() {
+        return 0;
+    }
 }
@@ -0,0 +1,25 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.reactor;
+
+/**
+ * Calls the handler methods of one handler object directly with the concrete message type.
+ * Implementations are generated for classes with methods annotated with OnMessage.
+ * The dispatcher calls all the generated classes from one call site, so the call is only inlined
+ * while a dispatcher has one or two handler classes, with more it is a virtual call.
+ */
+public interface TypedDispatch {
+
+    /**
+     * @return the message types handled, the position of a type is the index passed to dispatch
+     */
+    Class<? extends ReusableMessage>[] messageTypes();
+
+    /**
+     * call the handler methods for a message
+     * @param typeIndex position of the message type in messageTypes
+     * @param message message to handle
+     */
+    void dispatch(int typeIndex, ReusableMessage message);
+}
@@ -0,0 +1,32 @@
+package org.capeph.pool;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmoothObjectPoolTest {
+
+    @Test
+    public void testPutBeyondCapacity() {
+        AtomicInteger counter = new AtomicInteger(0);
+        SmoothObjectPool<String> stringPool = new SmoothObjectPool<>(
+                () -> String.format("%d", counter.getAndIncrement()), 2, 2);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < 10; i++) {
+                stringPool.put("extra" + i);   // the pool is full, the objects are dropped
+            }
+        });
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            taken.add(stringPool.get());
+        }
+        assertEquals(Set.of("0", "1", "2", "3"), taken);
+        stringPool.put("extra");
+        assertEquals("extra", stringPool.get());
+    }
+}
@@ -0,0 +1,36 @@
+package org.capeph.reactor;
+
+import org.agrona.concurrent.*;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdleStrategiesTest {
+
+    @Test
+    public void testStrategies() {
+        assertInstanceOf(BusySpinIdleStrategy.class, IdleStrategies.create("busy-spin"));
+        assertInstanceOf(YieldingIdleStrategy.class, IdleStrategies.create("yielding"));
+        assertInstanceOf(NoOpIdleStrategy.class, IdleStrategies.create("no-op"));
+        assertInstanceOf(SleepingIdleStrategy.class, IdleStrategies.create("sleeping"));
+        assertInstanceOf(SleepingMillisIdleStrategy.class, IdleStrategies.create("sleeping-millis:2"));
+        assertInstanceOf(BackoffIdleStrategy.class, IdleStrategies.create("Backoff"));
+    }
+
+    @Test
+    public void testParameters() {
+        IdleStrategy sleeping = IdleStrategies.create("sleeping:5000");
+        assertTrue(sleeping.toString().contains("5000"));
+        IdleStrategy backoff = IdleStrategies.create("backoff:10:20:1000:100000");
+        assertTrue(backoff.toString().contains("maxSpins=10"));
+        assertTrue(backoff.toString().contains("maxParkPeriodNs=100000"));
+    }
+
+    @Test
+    public void testBadDescriptions() {
+        assertThrows(IllegalArgumentException.class, () -> IdleStrategies.create("spinning"));
+        assertThrows(IllegalArgumentException.class, () -> IdleStrategies.create("backoff:1:2"));
+        assertThrows(IllegalArgumentException.class, () -> IdleStrategies.create("sleeping:soon"));
+        assertThrows(IllegalArgumentException.class, () -> IdleStrategies.create(""));
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a method that handles one message type. The method takes the message as its only parameter.
+ * A dispatch class named after the handler class with the suffix Dispatch is generated for
+ * every class with annotated methods, and can be registered with the reactor.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+public @interface OnMessage {
+}
@@ -0,0 +1,16 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks the field of a message that picks the dispatcher partition. The field needs a getter and
+ * must be a primitive or a String. The generated codec derives the partition key of the message from
+ * the field, so messages with the same value are handled in order on the same dispatcher thread.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface PartitionKey {
+}
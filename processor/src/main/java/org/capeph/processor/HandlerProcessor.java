@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Peter Danielsson
+ */
+package org.capeph.processor;
+
+import org.capeph.annotations.OnMessage;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * Generates a TypedDispatch implementation for every class with OnMessage methods.
+ * The generated class switches over the position of the message type and calls the handler
+ * methods directly, so the calls are monomorphic and the handlers need no casts.
+ */
+@SupportedAnnotationTypes("org.capeph.annotations.OnMessage")
+@SupportedSourceVersion(SourceVersion.RELEASE_21)
+public class HandlerProcessor extends AbstractProcessor {
+
+    private static final String REUSABLE_MESSAGE = "org.capeph.reactor.ReusableMessage";
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        // keep the source order of the handler classes and their methods
+        Map<TypeElement, List<ExecutableElement>> handlers = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(OnMessage.class)) {
+            ExecutableElement method = (ExecutableElement) element;
+            if (!verifyMethod(method)) {
+                continue;
+            }
+            handlers.computeIfAbsent((TypeElement) method.getEnclosingElement(), k -> new ArrayList<>()).add(method);
+        }
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : handlers.entrySet()) {
+            try {
+                buildDispatch(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                processingEnv.getMessager().printError("Failed to write dispatch for " + entry.getKey()
+                        + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean verifyMethod(ExecutableElement method) {
+        if (method.getParameters().size() != 1) {
+            processingEnv.getMessager().printError("OnMessage method must take the message as its only parameter", method);
+            return false;
+        }
+        if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+            processingEnv.getMessager().printError("OnMessage method can not be private or static", method);
+            return false;
+        }
+        TypeElement reusable = processingEnv.getElementUtils().getTypeElement(REUSABLE_MESSAGE);
+        TypeMirror parameter = method.getParameters().getFirst().asType();
+        if (reusable != null && !processingEnv.getTypeUtils().isAssignable(parameter, reusable.asType())) {
+            processingEnv.getMessager().printError("OnMessage parameter must be a ReusableMessage", method);
+            return false;
+        }
+        return true;
+    }
+
+    private String dispatchName(TypeElement handler) {
+        // nested handler classes are flattened into the name, Outer.Inner gives Outer_InnerDispatch
+        StringBuilder name = new StringBuilder(handler.getSimpleName());
+        Element enclosing = handler.getEnclosingElement();
+        while (enclosing.getKind().isClass() || enclosing.getKind().isInterface()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name + "Dispatch";
+    }
+
+    private void buildDispatch(TypeElement handler, List<ExecutableElement> methods) throws IOException {
+        String packageName = processingEnv.getElementUtils().getPackageOf(handler).getQualifiedName().toString();
+        String className = dispatchName(handler);
+        String handlerName = handler.getQualifiedName().toString();
+        // every message type gets an index, a type with several methods calls them in source order
+        SequencedMap<String, List<ExecutableElement>> types = new LinkedHashMap<>();
+        for (ExecutableElement method : methods) {
+            String type = processingEnv.getTypeUtils().erasure(method.getParameters().getFirst().asType()).toString();
+            types.computeIfAbsent(type, k -> new ArrayList<>()).add(method);
+        }
+        processingEnv.getMessager().printNote("Building dispatch " + className + " for " + handlerName);
+        String qualified = packageName.isEmpty() ? className : packageName + "." + className;
+        JavaFileObject dispatchFile = processingEnv.getFiler().createSourceFile(qualified, handler);
+        try (PrintWriter writer = new PrintWriter(dispatchFile.openWriter())) {
+            if (!packageName.isEmpty()) {
+                writer.print("package ");
+                writer.print(packageName);
+                writer.println(";");
+                writer.println("");
+            }
+            writer.println("import org.capeph.reactor.ReusableMessage;");
+            writer.println("import org.capeph.reactor.TypedDispatch;");
+            writer.println("");
+            writer.print("public final class ");
+            writer.print(className);
+            writer.println(" implements TypedDispatch {");
+            writer.println("");
+            writer.print("   private final ");
+            writer.print(handlerName);
+            writer.println(" handler;");
+            writer.println("");
+            constructor(writer, className, handlerName);
+            typesMethod(writer, types.sequencedKeySet());
+            dispatchMethod(writer, types);
+            writer.println("}");
+        }
+    }
+
+    private void constructor(PrintWriter writer, String className, String handlerName) {
+        writer.print("   public ");
+        writer.print(className);
+        writer.print("(");
+        writer.print(handlerName);
+        writer.println(" handler) {");
+        writer.println("      this.handler = handler;");
+        writer.println("   }");
+        writer.println("");
+    }
+
+    private void typesMethod(PrintWriter writer, SequencedSet<String> types) {
+        writer.println("   @Override");
+        writer.println("   @SuppressWarnings(\"unchecked\")");
+        writer.println("   public Class<? extends ReusableMessage>[] messageTypes() {");
+        writer.print("      return new Class[] {");
+        writer.print(String.join(", ", types.stream().map(t -> t + ".class").toList()));
+        writer.println("};");
+        writer.println("   }");
+        writer.println("");
+    }
+
+    private void dispatchMethod(PrintWriter writer, SequencedMap<String, List<ExecutableElement>> types) {
+        writer.println("   @Override");
+        writer.println("   public void dispatch(int typeIndex, ReusableMessage message) {");
+        writer.println("      switch (typeIndex) {");
+        int index = 0;
+        for (Map.Entry<String, List<ExecutableElement>> entry : types.entrySet()) {
+            writer.print("         case ");
+            writer.print(index++);
+            writer.println(" -> {");
+            writer.print("            ");
+            writer.print(entry.getKey());
+            writer.print(" msg = (");
+            writer.print(entry.getKey());
+            writer.println(") message;");
+            for (ExecutableElement method : entry.getValue()) {
+                writer.print("            handler.");
+                writer.print(method.getSimpleName());
+                writer.println("(msg);");
+            }
+            writer.println("         }");
+        }
+        writer.println("         default -> throw new IllegalArgumentException(\"No handler for type index \" + typeIndex);");
+        writer.println("      }");
+        writer.println("   }");
+    }
+}
@@ -3,6 +3,7 @@
  */
 package org.capeph.processor;
 
+import org.capeph.annotations.PartitionKey;
 import org.capeph.annotations.ReactorMessage;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -11,6 +12,7 @@ import javax.annotation.processing.SupportedAnnotationTypes;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.tools.JavaFileObject;
 import java.io.IOException;
@@ -25,8 +27,10 @@ public class MessageProcessor extends AbstractProcessor {
     private static class MessageAPI {
         SequencedMap<String, TypeMirror> getters = new LinkedHashMap<>();
         Map<String, TypeMirror> setters = new HashMap<>();
+        Map<String, String> getterMethods = new HashMap<>();
         private final Element element;
         private int id;
+        private String keyField;     // field annotated with PartitionKey, or null
 
         public Element getElement() {
             return element;
@@ -92,11 +96,19 @@ public class MessageProcessor extends AbstractProcessor {
                 for (Element enclosed : element.getEnclosedElements()) {
                     recordElement(enclosed, api);
                 }
+                if (isCorrelated(element)) {
+                    // the correlation fields are carried in the header
+                    for (String headerField : List.of("CorrelationId", "ReplyTo")) {
+                        api.getters.remove(headerField);
+                        api.setters.remove(headerField);
+                    }
+                }
                 int id = element.getAnnotation(ReactorMessage.class).id();
                 if (id < 0) {
                     throw new IllegalArgumentException("Message id must be a positive integer");
                 }
                 verifyMessage(api, element);
+                verifyKey(api, element);
                 messages.add(api);
                 api.setId(id == 0 ? -messages.size() : id);
             }
@@ -105,6 +117,9 @@ public class MessageProcessor extends AbstractProcessor {
             if (basePackage != null) {
                 processingEnv.getMessager().printNote("Building codec with basePackage " + basePackage);
                 BuildCodec(basePackage);
+                for (MessageAPI api : messages) {
+                    buildFlyweight(basePackage + ".codec", api);
+                }
             }
             else {
                 processingEnv.getMessager().printNote("Nothing to process in " + roundEnv);
@@ -117,6 +132,11 @@ public class MessageProcessor extends AbstractProcessor {
         return true;
     }
 
+    private boolean isCorrelated(Element element) {
+        TypeElement correlated = processingEnv.getElementUtils().getTypeElement("org.capeph.reactor.CorrelatedMessage");
+        return correlated != null && processingEnv.getTypeUtils().isAssignable(element.asType(), correlated.asType());
+    }
+
     private String exclude(String name, String prefix) {
         return name.substring(prefix.length());
     }
@@ -133,10 +153,12 @@ public class MessageProcessor extends AbstractProcessor {
                     TypeMirror type = method.getReturnType();
                     processingEnv.getMessager().printNote("adding getter " + name);
                     api.getters.put(exclude(name, "get"), type);
+                    api.getterMethods.put(exclude(name, "get"), name);
                 } else if (name.startsWith("is")) {
                         TypeMirror type = method.getReturnType();
                         processingEnv.getMessager().printNote("adding getter " + name);
                         api.getters.put(exclude(name, "is"), type);
+                        api.getterMethods.put(exclude(name, "is"), name);
                 } else if (name.startsWith("set")) {
                     List<? extends VariableElement> parameters = method.getParameters();
                     if (parameters.size() != 1) {
@@ -147,6 +169,15 @@ public class MessageProcessor extends AbstractProcessor {
                     api.setters.put(exclude(name, "set"), parameters.getFirst().asType());
                 }
             }
+            case FIELD -> {
+                if (enclosed.getAnnotation(PartitionKey.class) != null) {
+                    if (api.keyField != null) {
+                        throw new IllegalArgumentException("More than one partition key in " + api.getName());
+                    }
+                    String name = enclosed.getSimpleName().toString();
+                    api.keyField = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+                }
+            }
             default -> {
             }
         }
@@ -171,6 +202,21 @@ public class MessageProcessor extends AbstractProcessor {
     }
 
 
+    // the key is read through the getter of the field, so the field must have one of a type the key can be made from
+    private void verifyKey(MessageAPI api, Element wrapper) {
+        if (api.keyField == null) {
+            return;
+        }
+        TypeMirror type = api.getters.get(api.keyField);
+        if (type == null) {
+            throw new IllegalArgumentException("No getter for the partition key of " + wrapper + ":" + api.keyField);
+        }
+        if (!type.getKind().isPrimitive() && !type.toString().equals(String.class.getName())) {
+            throw new IllegalArgumentException("Partition key must be a primitive or a String: "
+                    + wrapper + ":" + api.keyField);
+        }
+    }
+
     private void BuildCodec(String packageName) throws IOException {
         String codecPackage = packageName + ".codec";
         String className = codecPackage + ".Codec";
@@ -187,10 +233,11 @@ public class MessageProcessor extends AbstractProcessor {
             writer.println("import org.capeph.reactor.ReusableMessage;");
             writer.println("import org.agrona.DirectBuffer;");
             writer.println("import org.agrona.MutableDirectBuffer;");
+            writer.println("import org.agrona.collections.Int2ObjectHashMap;");
             writer.println("import java.util.HashMap;");
             writer.println("import java.util.Map;");
             writer.println("import java.util.function.Consumer;");
-            writer.println("import java.util.function.Function;");
+            writer.println("import java.util.function.ToIntFunction;");
             for(MessageAPI api : messages) {
                 writer.print("import ");
                 writer.print(((TypeElement)api.getElement()).getQualifiedName().toString());
@@ -209,12 +256,18 @@ public class MessageProcessor extends AbstractProcessor {
             encodeMethod(writer);
             decodeMethod(writer);
             clearMethod(writer);
+            copyMethod(writer);
+            partitionKeyMethods(writer);
 
             for(MessageAPI api : messages) {
                 lengthFunction(writer, api);
                 encodeFunction(writer, api);
                 decodeFunction(writer, api);
                 clearFunction(writer, api);
+                copyFunction(writer, api);
+                if (api.keyField != null) {
+                    keyFunction(writer, api);
+                }
             }
 
             writer.println("}");
@@ -254,6 +307,24 @@ public class MessageProcessor extends AbstractProcessor {
             writer.print(api.getName());
             writer.println(")msg));");
 
+            writer.print("      copyFuns.put(");
+            writer.print(api.getName());
+            writer.print(".class, (msg, pool) -> ");
+            writer.print(copyFunctionName(api));
+            writer.print("((");
+            writer.print(api.getName());
+            writer.println(")msg, pool));");
+
+            if (api.keyField != null) {
+                writer.print("      keyFuns.put(");
+                writer.print(api.getName());
+                writer.print(".class, msg -> ");
+                writer.print(keyFunctionName(api));
+                writer.print("((");
+                writer.print(api.getName());
+                writer.println(")msg));");
+            }
+
             writer.print("      messageIdMap.put(");
             writer.print(api.getId());
             writer.print(", ");
@@ -266,18 +337,31 @@ public class MessageProcessor extends AbstractProcessor {
 
     private void localFields(PrintWriter writer) {
         writer.println("   private static final int VERSION = 1;");
-        writer.println("   private Map<Class<? extends ReusableMessage>, Function<ReusableMessage, Integer>> lengthFuns = new HashMap<>();");
-        writer.println("   private Map<Class<? extends ReusableMessage>, TriFunction<ReusableMessage, MutableDirectBuffer, Integer, Integer>> encodeFuns = new HashMap<>();");
-        writer.println("   private Map<Integer, TriFunction<DirectBuffer, Integer, MessagePool, ? extends ReusableMessage>> decodeFuns = new HashMap<>();");
-        writer.println("   private Map<Integer, Class<? extends ReusableMessage>> messageIdMap = new HashMap<>();");
+        // primitive int keys and results, so encoding and decoding never box
+        writer.println("   private Map<Class<? extends ReusableMessage>, ToIntFunction<ReusableMessage>> lengthFuns = new HashMap<>();");
+        writer.println("   private Map<Class<? extends ReusableMessage>, Encoder> encodeFuns = new HashMap<>();");
+        writer.println("   private Int2ObjectHashMap<Decoder> decodeFuns = new Int2ObjectHashMap<>();");
+        writer.println("   private Int2ObjectHashMap<Class<? extends ReusableMessage>> messageIdMap = new Int2ObjectHashMap<>();");
         writer.println("   private Map<Class<? extends ReusableMessage>, Consumer<ReusableMessage>> clearFuns = new HashMap<>();");
+        writer.println("   private Map<Class<? extends ReusableMessage>, Copier> copyFuns = new HashMap<>();");
+        writer.println("   private Map<Class<? extends ReusableMessage>, ToIntFunction<ReusableMessage>> keyFuns = new HashMap<>();");
         writer.println("");
     }
 
     private void functionalInterface(PrintWriter writer) {
         writer.println("   @FunctionalInterface");
-        writer.println("   interface TriFunction<T, U, V, R> {");
-        writer.println("       R apply(T t, U u, V v);");
+        writer.println("   interface Encoder {");
+        writer.println("       int encode(ReusableMessage msg, MutableDirectBuffer buffer, int offset);");
+        writer.println("   }");
+        writer.println("");
+        writer.println("   @FunctionalInterface");
+        writer.println("   interface Decoder {");
+        writer.println("       ReusableMessage decode(DirectBuffer buffer, int offset, MessagePool pool);");
+        writer.println("   }");
+        writer.println("");
+        writer.println("   @FunctionalInterface");
+        writer.println("   interface Copier {");
+        writer.println("       ReusableMessage copy(ReusableMessage msg, MessagePool pool);");
         writer.println("   }");
         writer.println("");
     }
@@ -285,9 +369,9 @@ public class MessageProcessor extends AbstractProcessor {
     private void lengthMethod(PrintWriter writer) {
         writer.println("   @Override");
         writer.println("   public int encodedLength(ReusableMessage msg) {");
-        writer.println("      Function<ReusableMessage, Integer> fun = lengthFuns.get(msg.getClass());");
+        writer.println("      ToIntFunction<ReusableMessage> fun = lengthFuns.get(msg.getClass());");
         writer.println("      if (fun != null) {");
-        writer.println("          return fun.apply(msg) + Header.length();");
+        writer.println("          return fun.applyAsInt(msg) + Header.length();");
         writer.println("      }");
         writer.println("      else {");
         writer.println("          throw new IllegalArgumentException(\"No message length function matching \"");
@@ -308,9 +392,9 @@ public class MessageProcessor extends AbstractProcessor {
     private void encodeMethod(PrintWriter writer) {
         writer.println("   @Override");
         writer.println("   public int encode(ReusableMessage msg, MutableDirectBuffer buffer, int offset) {");
-        writer.println("       TriFunction<ReusableMessage, MutableDirectBuffer, Integer, Integer> fun = encodeFuns.get(msg.getClass());");
+        writer.println("       Encoder fun = encodeFuns.get(msg.getClass());");
         writer.println("       if (fun != null) {");
-        writer.println("           return fun.apply(msg, buffer, offset);");
+        writer.println("           return fun.encode(msg, buffer, offset);");
         writer.println("       }");
         writer.println("       else {");
         writer.println("           throw new IllegalArgumentException(\"No encoder function matching \" + msg.getClass());");
@@ -324,7 +408,11 @@ public class MessageProcessor extends AbstractProcessor {
         writer.println("   @Override");
         writer.println("   public ReusableMessage decode(DirectBuffer buffer, int offset, MessagePool messagePool) {");
         writer.println("       int messageType = Header.getMessageType(buffer, offset);");
-        writer.println("       return decodeFuns.get(messageType).apply(buffer, offset, messagePool);");
+        writer.println("       Decoder fun = decodeFuns.get(messageType);");
+        writer.println("       if (fun == null) {");
+        writer.println("           throw new IllegalArgumentException(\"No decoder function matching \" + messageType);");
+        writer.println("       }");
+        writer.println("       return fun.decode(buffer, offset, messagePool);");
         writer.println("   }");
         writer.println("");
     }
@@ -344,6 +432,31 @@ public class MessageProcessor extends AbstractProcessor {
     }
 
 
+    private void copyMethod(PrintWriter writer) {
+        writer.println("   @Override");
+        writer.println("   public ReusableMessage copy(ReusableMessage msg, MessagePool messagePool) {");
+        writer.println("       Copier fun = copyFuns.get(msg.getClass());");
+        writer.println("       return fun == null ? null : fun.copy(msg, messagePool);");
+        writer.println("   }");
+        writer.println("");
+    }
+
+
+    private void partitionKeyMethods(PrintWriter writer) {
+        writer.println("   @Override");
+        writer.println("   public int partitionKey(ReusableMessage msg) {");
+        writer.println("       ToIntFunction<ReusableMessage> fun = keyFuns.get(msg.getClass());");
+        writer.println("       return fun == null ? msg.partitionKey() : fun.applyAsInt(msg);");
+        writer.println("   }");
+        writer.println("");
+        writer.println("   @Override");
+        writer.println("   public boolean hasPartitionKey(Class<? extends ReusableMessage> messageClass) {");
+        writer.println("       return keyFuns.containsKey(messageClass);");
+        writer.println("   }");
+        writer.println("");
+    }
+
+
     // Code generation for the messages
 
     // calculate message length
@@ -470,7 +583,9 @@ public class MessageProcessor extends AbstractProcessor {
             if (getterType.toString().equals(StringBuffer.class.getName())) {
                 writeStringBufferEncoding(writer, fieldName);
             }
-            writeFieldEncoding(writer, fieldName, getterType);
+            else {
+                writeFieldEncoding(writer, fieldName, getterType);
+            }
         }
         writer.println("      return dst;");
         writer.println("   }");
@@ -670,7 +785,234 @@ public class MessageProcessor extends AbstractProcessor {
         writer.println("   }");
     }
 
+    private String keyFunctionName(MessageAPI api) {
+        return "get" + api.getName() + "PartitionKey";
+    }
+
+    // same values as the hashCode of the boxed types, without boxing
+    private void keyFunction(PrintWriter writer, MessageAPI api) {
+        String value = "msg." + api.getterMethods.get(api.keyField) + "()";
+        TypeMirror type = api.getters.get(api.keyField);
+        String key = switch (type.getKind()) {
+            case BYTE, CHAR, SHORT, INT -> value;
+            case BOOLEAN -> value + " ? 1 : 0";
+            case LONG -> "Long.hashCode(" + value + ")";
+            case FLOAT -> "Float.hashCode(" + value + ")";
+            case DOUBLE -> "Double.hashCode(" + value + ")";
+            default -> value + " == null ? 0 : " + value + ".hashCode()";
+        };
+        writer.print("   private int ");
+        writer.print(keyFunctionName(api));
+        writer.print("(");
+        writer.print(api.getName());
+        writer.println(" msg) {");
+        writer.print("      return ");
+        writer.print(key);
+        writer.println(";");
+        writer.println("   }");
+        writer.println("");
+    }
+
+    private String copyFunctionName(MessageAPI api) {
+        return "copy" + api.getName();
+    }
+
+    // the fields are copied through the getters and setters, the same fields as are encoded
+    private void copyFunction(PrintWriter writer, MessageAPI api) {
+        writer.print("   private ");
+        writer.print(api.getName());
+        writer.print(" ");
+        writer.print(copyFunctionName(api));
+        writer.print("(");
+        writer.print(api.getName());
+        writer.println(" src, MessagePool pool) {");
+        writer.print("      ");
+        writer.print(api.getName());
+        writer.print(" msg = (");
+        writer.print(api.getName());
+        writer.print(") pool.getMessageTemplate(");
+        writer.print(api.getName());
+        writer.println(".class);");
+        for(Map.Entry<String, TypeMirror> field: api.getters.entrySet()) {
+            String fieldName = field.getKey();
+            TypeMirror getterType = field.getValue();
+            if (getterType.toString().equals(StringBuffer.class.getName())) {
+                writer.print("      msg.get");
+                writer.print(fieldName);
+                writer.println("().setLength(0);");
+                writer.print("      msg.get");
+                writer.print(fieldName);
+                writer.print("().append(src.get");
+                writer.print(fieldName);
+                writer.println("());");
+            }
+            else {
+                String getter = getterType.getKind() == TypeKind.BOOLEAN ? "is" : "get";
+                setField(writer, fieldName, "src." + getter + fieldName + "()");
+            }
+        }
+        writer.println("      return msg;");
+        writer.println("   }");
+        writer.println("");
+    }
+
+    // flyweights, read the fields in place from the encoded message
 
+    private String flyweightName(MessageAPI api) {
+        return api.getName() + "Flyweight";
+    }
+
+    private String offsetName(String fieldName) {
+        return "offsetOf" + fieldName;
+    }
 
+    private void buildFlyweight(String codecPackage, MessageAPI api) throws IOException {
+        String className = flyweightName(api);
+        JavaFileObject flyweightFile = processingEnv.getFiler().createSourceFile(codecPackage + "." + className);
+        try (PrintWriter writer = new PrintWriter(flyweightFile.openWriter())) {
+            writer.print("package ");
+            writer.print(codecPackage);
+            writer.println(";");
+            writer.println("");
+            writer.println("import org.capeph.reactor.Header;");
+            writer.println("import org.capeph.reactor.MessageFlyweight;");
+            writer.println("import org.agrona.DirectBuffer;");
+            writer.println("");
+            writer.println("/**");
+            writer.print(" * Reads the fields of an encoded ");
+            writer.print(api.getName());
+            writer.println(" without decoding it.");
+            writer.println(" * The view is only valid until the buffer it wraps is reused.");
+            writer.println(" */");
+            writer.print("public final class ");
+            writer.print(className);
+            writer.println(" implements MessageFlyweight {");
+            writer.println("");
+            writer.print("   public static final int MESSAGE_TYPE = ");
+            writer.print(api.getId());
+            writer.println(";");
+            writer.println("");
+            writer.println("   private DirectBuffer buffer;");
+            for (String fieldName : api.getters.keySet()) {
+                writer.print("   private int ");
+                writer.print(offsetName(fieldName));
+                writer.println(";");
+            }
+            writer.println("");
+            writer.println("   @Override");
+            writer.println("   public int messageType() {");
+            writer.println("      return MESSAGE_TYPE;");
+            writer.println("   }");
+            writer.println("");
+            flyweightWrap(writer, api);
+            for (Map.Entry<String, TypeMirror> field : api.getters.entrySet()) {
+                flyweightGetter(writer, field.getKey(), field.getValue());
+            }
+            writer.println("}");
+        }
+    }
+
+    private void flyweightWrap(PrintWriter writer, MessageAPI api) {
+        writer.println("   @Override");
+        writer.println("   public void wrap(DirectBuffer buffer, int offset, int length) {");
+        writer.println("      this.buffer = buffer;");
+        writer.println("      int src = offset + Header.length();");
+        for (Map.Entry<String, TypeMirror> field : api.getters.entrySet()) {
+            writer.print("      ");
+            writer.print(offsetName(field.getKey()));
+            writer.println(" = src;");
+            writer.print("      src += ");
+            writer.print(encodedSize(field.getValue()));
+            writer.println(";");
+        }
+        writer.println("   }");
+        writer.println("");
+    }
+
+    // the expression for the encoded size of a field starting at src
+    private String encodedSize(TypeMirror type) {
+        return switch (type.getKind()) {
+            case BYTE, BOOLEAN -> "1";
+            case CHAR, SHORT -> "2";
+            case INT, FLOAT -> "4";
+            case LONG, DOUBLE -> "8";
+            case DECLARED -> {
+                String typeName = type.toString();
+                if (typeName.equals(String.class.getName())) {
+                    yield "4 + buffer.getInt(src)";
+                }
+                else if (typeName.equals(StringBuffer.class.getName())) {
+                    yield "4 + 2 * buffer.getInt(src)";
+                }
+                throw new IllegalStateException("Unsupported type");
+            }
+            default -> throw new IllegalStateException("Unsupported type");
+        };
+    }
+
+    private void primitiveGetter(PrintWriter writer, String prefix, String fieldName, String type, String read) {
+        writer.print("   public ");
+        writer.print(type);
+        writer.print(" ");
+        writer.print(prefix);
+        writer.print(fieldName);
+        writer.println("() {");
+        writer.print("      return ");
+        writer.print(read);
+        writer.println(";");
+        writer.println("   }");
+        writer.println("");
+    }
+
+    private void flyweightGetter(PrintWriter writer, String fieldName, TypeMirror type) {
+        String offset = offsetName(fieldName);
+        switch (type.getKind()) {
+            case BYTE -> primitiveGetter(writer, "get", fieldName, "byte", "buffer.getByte(" + offset + ")");
+            case INT -> primitiveGetter(writer, "get", fieldName, "int", "buffer.getInt(" + offset + ")");
+            case CHAR -> primitiveGetter(writer, "get", fieldName, "char", "buffer.getChar(" + offset + ")");
+            case SHORT -> primitiveGetter(writer, "get", fieldName, "short", "buffer.getShort(" + offset + ")");
+            case FLOAT -> primitiveGetter(writer, "get", fieldName, "float", "buffer.getFloat(" + offset + ")");
+            case LONG -> primitiveGetter(writer, "get", fieldName, "long", "buffer.getLong(" + offset + ")");
+            case DOUBLE -> primitiveGetter(writer, "get", fieldName, "double", "buffer.getDouble(" + offset + ")");
+            case BOOLEAN -> primitiveGetter(writer, "is", fieldName, "boolean",
+                    "buffer.getByte(" + offset + ") == (byte)'T'");
+            case DECLARED -> {
+                String typeName = type.toString();
+                // the length and an appending getter let handlers read text without allocating
+                primitiveGetter(writer, "get", fieldName + "Length", "int", "buffer.getInt(" + offset + ")");
+                if (typeName.equals(String.class.getName())) {
+                    primitiveGetter(writer, "get", fieldName, "String", "buffer.getStringAscii(" + offset + ")");
+                    writer.print("   public int get");
+                    writer.print(fieldName);
+                    writer.println("(Appendable dst) {");
+                    writer.print("      return buffer.getStringAscii(");
+                    writer.print(offset);
+                    writer.println(", dst);");
+                    writer.println("   }");
+                    writer.println("");
+                }
+                else if (typeName.equals(StringBuffer.class.getName())) {
+                    writer.print("   public int get");
+                    writer.print(fieldName);
+                    writer.println("(StringBuilder dst) {");
+                    writer.print("      int length = buffer.getInt(");
+                    writer.print(offset);
+                    writer.println(");");
+                    writer.println("      for (int i = 0; i < length; i++) {");
+                    writer.print("         dst.append(buffer.getChar(");
+                    writer.print(offset);
+                    writer.println(" + 4 + 2 * i));");
+                    writer.println("      }");
+                    writer.println("      return length;");
+                    writer.println("   }");
+                    writer.println("");
+                }
+                else {
+                    throw new IllegalStateException("Unsupported type");
+                }
+            }
+            default -> throw new IllegalStateException("Unsupported type");
+        }
+    }
 
 }